@@ -0,0 +1,70 @@
+package datastructures.avl;
+
+import java.util.Random;
+
+// Heap footprint and lookup latency of ArrayAVL against the node-based AVL. Each tree maps n
+// shuffled even keys to shared Integer values, so the measured heap is the tree structure only.
+// "compact" is an ArrayAVL trimmed with compact() after loading. Run with a heap large enough
+// for the biggest tree, e.g. -Xmx4g for n = 10,000,000.
+//
+//   javac -d out $(find src bench -name '*.java')
+//   java -cp out datastructures.avl.ArrayAVLBench [n] [lookups]
+public class ArrayAVLBench {
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int lookups = (args.length > 1) ? Integer.parseInt(args[1]) : 5_000_000;
+
+        Random rnd = new Random(1);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int x = order[i];
+            order[i] = order[j];
+            order[j] = x;
+        }
+        Integer[] values = new Integer[n];
+        for (int i = 0; i < n; i++) values[i] = i;
+
+        // Half the probes miss (odd keys), as lookups of absent IDs do.
+        int[] probes = new int[lookups];
+        for (int i = 0; i < lookups; i++) probes[i] = rnd.nextInt(2 * n);
+
+        for (String kind : new String[] {"node", "array", "compact"}) {
+            long before = usedHeap();
+            long t0 = System.nanoTime();
+            AVL<Integer> avl = null;
+            ArrayAVL<Integer> array = null;
+            if (kind.equals("node")) {
+                avl = new AVL<>();
+                for (int k : order) avl.insert(2 * k, values[k]);
+            } else {
+                array = new ArrayAVL<>();
+                for (int k : order) array.insert(2 * k, values[k]);
+                if (kind.equals("compact")) array.compact();
+            }
+            long insertNs = System.nanoTime() - t0;
+            long heap = usedHeap() - before;
+
+            long best = Long.MAX_VALUE, check = 0;
+            for (int round = 0; round < 5; round++) {
+                long s = System.nanoTime();
+                for (int k : probes) {
+                    Integer v = (avl != null) ? avl.search(k) : array.search(k);
+                    if (v != null) check += v;
+                }
+                best = Math.min(best, System.nanoTime() - s);
+            }
+
+            System.out.printf("%-7s n=%d  heap %.1f MB (%.1f B/node)  insert %.0f ns/op  lookup %.0f ns/op (checksum %d)%n",
+                    kind, n, heap / 1e6, (double) heap / n, (double) insertNs / n, (double) best / lookups, check % 1000);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
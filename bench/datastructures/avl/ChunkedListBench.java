@@ -0,0 +1,85 @@
+package datastructures.avl;
+
+import java.lang.management.ManagementFactory;
+
+// Allocation and iteration benchmark: ChunkedList against LinkedList, both built by appending n
+// boxed values and scanned with the findFirst/findNext/retrieve cursor. Reports the best of
+// several rounds, after the first rounds have warmed up the JIT, and the bytes each build
+// allocated per element as counted by the JVM for this thread (the values are shared, so this is
+// the list's own overhead). Allocation is not reported on JVMs without that counter.
+//
+//   javac -d out $(find src bench -name '*.java')
+//   java -cp out datastructures.avl.ChunkedListBench [n] [rounds]
+public class ChunkedListBench {
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+
+        Integer[] values = new Integer[128];
+        for (int i = 0; i < values.length; i++) values[i] = i;
+
+        long buildLinked = Long.MAX_VALUE, scanLinked = Long.MAX_VALUE;
+        long buildChunked = Long.MAX_VALUE, scanChunked = Long.MAX_VALUE;
+        long allocLinked = Long.MAX_VALUE, allocChunked = Long.MAX_VALUE;
+        long check = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            long a0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            LinkedList<Integer> linked = new LinkedList<>();
+            for (int i = 0; i < n; i++) linked.append(values[i & 127]);
+            long t1 = System.nanoTime();
+            long a1 = allocatedBytes();
+            long sumLinked = 0;
+            linked.findFirst();
+            while (true) {
+                sumLinked += linked.retrieve();
+                if (linked.last()) break;
+                linked.findNext();
+            }
+            long t2 = System.nanoTime();
+            linked = null;
+
+            long a2 = allocatedBytes();
+            ChunkedList<Integer> chunked = new ChunkedList<>();
+            for (int i = 0; i < n; i++) chunked.append(values[i & 127]);
+            long t3 = System.nanoTime();
+            long a3 = allocatedBytes();
+            long sumChunked = 0;
+            chunked.findFirst();
+            while (true) {
+                sumChunked += chunked.retrieve();
+                if (chunked.last()) break;
+                chunked.findNext();
+            }
+            long t4 = System.nanoTime();
+
+            if (sumLinked != sumChunked) throw new IllegalStateException("lists disagree");
+            check += sumChunked;
+            buildLinked = Math.min(buildLinked, t1 - t0);
+            scanLinked = Math.min(scanLinked, t2 - t1);
+            buildChunked = Math.min(buildChunked, t3 - t2);
+            scanChunked = Math.min(scanChunked, t4 - t3);
+            allocLinked = Math.min(allocLinked, a1 - a0);
+            allocChunked = Math.min(allocChunked, a3 - a2);
+        }
+
+        System.out.printf("n=%d  LinkedList: build %.1f ns/elem, scan %.1f ns/elem%s%n",
+                n, (double) buildLinked / n, (double) scanLinked / n, bytesPerElement(allocLinked, n));
+        System.out.printf("n=%d  ChunkedList: build %.1f ns/elem, scan %.1f ns/elem%s (checksum %d)%n",
+                n, (double) buildChunked / n, (double) scanChunked / n, bytesPerElement(allocChunked, n), check % 1000);
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM does not count them.
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String bytesPerElement(long bytes, int n) {
+        return (bytes < 0) ? "" : String.format(", alloc %.1f B/elem", (double) bytes / n);
+    }
+}
@@ -0,0 +1,72 @@
+package datastructures.avl;
+
+import java.util.Random;
+
+// Point lookups and long range scans on each OrderedIndex.Kind (AVL, ConcurrentAVL, PersistentAVL,
+// B+-tree), all loaded with the same n random keys drawn from [0, 4n). Range scans read
+// 10,000-key windows (a couple of thousand entries each) through rangeCursor and rangeQuery; the
+// full scan walks cursor(). Timings are the best of several rounds.
+//
+//   javac -d out $(find src bench -name '*.java')
+//   java -cp out datastructures.avl.OrderedIndexBench [n] [rounds]
+public class OrderedIndexBench {
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        int lookups = 2_000_000, scans = 200, window = 10_000;
+
+        Random rnd = new Random(1);
+        int[] keys = new int[n];
+        Integer[] values = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = rnd.nextInt(4 * n);
+            values[i] = i;
+        }
+
+        for (OrderedIndex.Kind kind : OrderedIndex.Kind.values()) {
+            OrderedIndex<Integer> index = kind.create();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) index.insert(keys[i], values[i]);
+            long insertNs = System.nanoTime() - t0;
+
+            long lookup = Long.MAX_VALUE, cursorScan = Long.MAX_VALUE, listScan = Long.MAX_VALUE, fullScan = Long.MAX_VALUE;
+            long scanned = 0, listed = 0, check = 0;
+            for (int round = 0; round < rounds; round++) {
+                Random q = new Random(2);
+
+                long s = System.nanoTime();
+                for (int i = 0; i < lookups; i++) check += index.search(keys[q.nextInt(n)]);
+                lookup = Math.min(lookup, System.nanoTime() - s);
+
+                scanned = 0;
+                s = System.nanoTime();
+                for (int i = 0; i < scans; i++) {
+                    int lo = q.nextInt(4 * n);
+                    for (OrderedIndex.Cursor<Integer> c = index.rangeCursor(lo, lo + window); c.valid(); c.findNext()) {
+                        check += c.retrieve();
+                        scanned++;
+                    }
+                }
+                cursorScan = Math.min(cursorScan, System.nanoTime() - s);
+
+                listed = 0;
+                s = System.nanoTime();
+                for (int i = 0; i < scans; i++) {
+                    int lo = q.nextInt(4 * n);
+                    listed += index.rangeQuery(lo, lo + window).getSize();
+                }
+                listScan = Math.min(listScan, System.nanoTime() - s);
+
+                s = System.nanoTime();
+                for (OrderedIndex.Cursor<Integer> c = index.cursor(); c.valid(); c.findNext()) check += c.key();
+                fullScan = Math.min(fullScan, System.nanoTime() - s);
+            }
+
+            System.out.printf("%-19s n=%d  insert %.0f ns  lookup %.0f ns  rangeCursor %.1f ns/entry  rangeQuery %.1f ns/entry  full scan %.1f ns/entry (checksum %d)%n",
+                    kind, index.getSize(), (double) insertNs / n, (double) lookup / lookups,
+                    (double) cursorScan / Math.max(scanned, 1), (double) listScan / Math.max(listed, 1),
+                    (double) fullScan / index.getSize(), check % 1000);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package datastructures.avl;
 
-public class AVL<T> {
+import java.util.function.ToIntFunction;
+
+public class AVL<T> implements OrderedIndex<T> {
 
     AVLNode<T> root, current;
 
@@ -8,6 +10,115 @@ public class AVL<T> {
         root = current = null;
     }
 
+    // Bulk-loads a perfectly balanced tree from the first n (key, value) pairs in O(n).
+    // Input that is not strictly increasing is sorted first (O(n log n)); for duplicate keys the
+    // first occurrence wins, as it would with repeated insert(). The arrays may be reordered.
+    public static <T> AVL<T> buildFromSorted(int[] keys, T[] values, int n) {
+        AVL<T> tree = new AVL<>();
+        if (n <= 0) return tree;
+
+        n = sortUnique(keys, values, n);
+        tree.root = buildBalanced(keys, values, 0, n - 1, null);
+        tree.current = tree.root;
+        return tree;
+    }
+
+    // Makes the first n keys strictly increasing (stable sort, first duplicate wins) unless they
+    // already are, and returns the number of entries left. Shared with the other bulk loaders.
+    static <T> int sortUnique(int[] keys, T[] values, int n) {
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++) {
+            if (keys[i - 1] >= keys[i]) sorted = false;
+        }
+        if (sorted) return n;
+
+        sortByKey(keys, values, n);
+
+        int m = 1;
+        for (int i = 1; i < n; i++) {
+            if (keys[i] != keys[m - 1]) {
+                keys[m] = keys[i];
+                values[m] = values[i];
+                m++;
+            }
+        }
+        return m;
+    }
+
+    // Convenience overload for loading from a list; keyOf extracts the index key from each element.
+    public static <T> AVL<T> buildFromSorted(LinkedList<T> list, ToIntFunction<T> keyOf) {
+        if (list == null || list.empty()) return new AVL<>();
+
+        int n = list.getSize();
+        int[] keys = new int[n];
+        @SuppressWarnings("unchecked")
+        T[] values = (T[]) new Object[n];
+
+        list.findFirst();
+        for (int i = 0; i < n; i++) {
+            values[i] = list.retrieve();
+            keys[i] = keyOf.applyAsInt(values[i]);
+            if (!list.last()) list.findNext();
+        }
+        return buildFromSorted(keys, values, n);
+    }
+
+    private static <T> AVLNode<T> buildBalanced(int[] keys, T[] values, int lo, int hi, AVLNode<T> parent) {
+        if (lo > hi) return null;
+
+        int mid = (lo + hi) >>> 1;
+        AVLNode<T> node = new AVLNode<>(keys[mid], values[mid]);
+        node.parent = parent;
+        node.left = buildBalanced(keys, values, lo, mid - 1, node);
+        node.right = buildBalanced(keys, values, mid + 1, hi, node);
+
+        int hl = (node.left == null) ? 0 : node.left.height;
+        int hr = (node.right == null) ? 0 : node.right.height;
+        node.height = 1 + Math.max(hl, hr);
+        node.size = hi - lo + 1;
+        return node;
+    }
+
+    // Stable merge sort of the first n keys, moving the values along with them.
+    private static <T> void sortByKey(int[] keys, T[] values, int n) {
+        int[] keyBuf = new int[n];
+        @SuppressWarnings("unchecked")
+        T[] valueBuf = (T[]) new Object[n];
+        mergeSort(keys, values, keyBuf, valueBuf, 0, n);
+    }
+
+    private static <T> void mergeSort(int[] keys, T[] values, int[] keyBuf, T[] valueBuf, int lo, int hi) {
+        if (hi - lo < 2) return;
+
+        int mid = (lo + hi) >>> 1;
+        mergeSort(keys, values, keyBuf, valueBuf, lo, mid);
+        mergeSort(keys, values, keyBuf, valueBuf, mid, hi);
+        if (keys[mid - 1] <= keys[mid]) return;
+
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+            if (keys[j] < keys[i]) {
+                keyBuf[k] = keys[j];
+                valueBuf[k++] = values[j++];
+            } else {
+                keyBuf[k] = keys[i];
+                valueBuf[k++] = values[i++];
+            }
+        }
+        while (i < mid) {
+            keyBuf[k] = keys[i];
+            valueBuf[k++] = values[i++];
+        }
+        while (j < hi) {
+            keyBuf[k] = keys[j];
+            valueBuf[k++] = values[j++];
+        }
+        for (k = lo; k < hi; k++) {
+            keys[k] = keyBuf[k];
+            values[k] = valueBuf[k];
+        }
+    }
+
     public boolean empty() {
         return root == null;
     }
@@ -28,17 +139,23 @@ public class AVL<T> {
     }
 
     // Detaches the subtree rooted at "current" from the tree.
+    // Heights and sizes of the ancestors are refreshed, but no rebalancing is attempted.
     public void deleteSubtree() {
         if(current == root) {
             current = root = null;
         }
         else {
-            AVLNode<T> p = current;
-            find(Relative.Parent);
-            if(current.left == p)
-                current.left = null;
+            AVLNode<T> p = current.parent;
+            if(p.left == current)
+                p.left = null;
             else
-                current.right = null;
+                p.right = null;
+            current.parent = null;
+
+            while (p != null) {
+                updateHeight(p);
+                p = p.parent;
+            }
             current = root;
         }
     }
@@ -52,7 +169,7 @@ public class AVL<T> {
             case Parent:
                 if(current == root)
                     return false;
-                current = findparent(current, root);
+                current = current.parent;
                 return true;
             case LeftChild:
                 if(current.left == null)
@@ -69,22 +186,6 @@ public class AVL<T> {
         }
     }
 
-    private AVLNode<T> findparent(AVLNode<T> p, AVLNode<T> t) {
-        if(t == null)
-            return null;
-        if(t.right == null && t.left == null)
-            return null;
-        else if(t.right == p || t.left == p)
-            return t;
-        else {
-            AVLNode<T> q = findparent(p, t.left);
-            if (q != null)
-                return q;
-            else
-                return findparent(p, t.right);
-        }
-    }
-
     private int getHeight(AVLNode<T> node) {
         if (node == null) return 0;
         return node.height;
@@ -95,19 +196,43 @@ public class AVL<T> {
         return getHeight(node.left) - getHeight(node.right);
     }
 
+    private int getSubtreeSize(AVLNode<T> node) {
+        if (node == null) return 0;
+        return node.size;
+    }
+
+    // Refreshes both the cached height and the cached subtree size from the children.
     private void updateHeight(AVLNode<T> node) {
         if (node != null) {
             node.height = 1 + Math.max(getHeight(node.left), getHeight(node.right));
+            node.size = 1 + getSubtreeSize(node.left) + getSubtreeSize(node.right);
         }
     }
 
+    // Points parent at newChild in place of oldChild; a null parent means oldChild was the root.
+    private void replaceChild(AVLNode<T> parent, AVLNode<T> oldChild, AVLNode<T> newChild) {
+        if (parent == null)
+            root = newChild;
+        else if (parent.left == oldChild)
+            parent.left = newChild;
+        else
+            parent.right = newChild;
+
+        if (newChild != null)
+            newChild.parent = parent;
+    }
+
     // Performs a right rotation around y and returns the new subtree root.
     private AVLNode<T> rightRotate(AVLNode<T> y) {
         AVLNode<T> x = y.left;
         AVLNode<T> T2 = x.right;
 
+        replaceChild(y.parent, y, x);
+
         x.right = y;
+        y.parent = x;
         y.left = T2;
+        if (T2 != null) T2.parent = y;
 
         updateHeight(y);
         updateHeight(x);
@@ -120,8 +245,12 @@ public class AVL<T> {
         AVLNode<T> y = x.right;
         AVLNode<T> T2 = y.left;
 
+        replaceChild(x.parent, x, y);
+
         y.left = x;
+        x.parent = y;
         x.right = T2;
+        if (T2 != null) T2.parent = x;
 
         updateHeight(x);
         updateHeight(y);
@@ -129,6 +258,43 @@ public class AVL<T> {
         return y;
     }
 
+    // Restores the AVL property at node (single or double rotation) and returns the subtree root.
+    private AVLNode<T> rebalance(AVLNode<T> node) {
+        int balance = getBalanceFactor(node);
+
+        if (balance > 1) {
+            if (getBalanceFactor(node.left) < 0)
+                leftRotate(node.left);
+            return rightRotate(node);
+        }
+
+        if (balance < -1) {
+            if (getBalanceFactor(node.right) > 0)
+                rightRotate(node.right);
+            return leftRotate(node);
+        }
+
+        return node;
+    }
+
+    // Walks from p up to the root after a node was added (delta = 1) or removed (delta = -1).
+    // Rebalancing stops as soon as a subtree keeps its old height; above that only the sizes change.
+    private void retrace(AVLNode<T> p, int delta) {
+        boolean balancing = true;
+        while (p != null) {
+            if (balancing) {
+                int oldHeight = p.height;
+                updateHeight(p);
+                p = rebalance(p);
+                if (p.height == oldHeight)
+                    balancing = false;
+            } else {
+                p.size += delta;
+            }
+            p = p.parent;
+        }
+    }
+
     // Searches for a key and updates "current":
     // - if found: current points to the matching node
     // - if not found: current points to the last visited node (insertion position parent)
@@ -151,122 +317,144 @@ public class AVL<T> {
         return false;
     }
 
+    // Single descent: either stops at an existing key (current = that node, returns false)
+    // or links a new leaf under the last visited node and retraces upwards (current = new node).
     public boolean insert(int k, T val) {
-        if (findkey(k)) {
-            return false;
+        AVLNode<T> p = root, q = null;
+        while (p != null) {
+            if (k == p.key) {
+                current = p;
+                return false;
+            }
+            q = p;
+            p = (k < p.key) ? p.left : p.right;
         }
 
-        root = insertRecursive(root, k, val);
-        findkey(k);
+        AVLNode<T> node = new AVLNode<>(k, val);
+        node.parent = q;
+        if (q == null)
+            root = node;
+        else if (k < q.key)
+            q.left = node;
+        else
+            q.right = node;
+
+        retrace(q, 1);
+        current = node;
         return true;
     }
 
-    // Standard AVL insert with rebalancing on the way back up.
-    private AVLNode<T> insertRecursive(AVLNode<T> node, int key, T value) {
-        if (node == null) {
-            return new AVLNode<>(key, value);
-        }
-
-        if (key < node.key) {
-            node.left = insertRecursive(node.left, key, value);
-        } else if (key > node.key) {
-            node.right = insertRecursive(node.right, key, value);
-        } else {
-            node.data = value;
-            return node;
-        }
-
-        updateHeight(node);
-        int balance = getBalanceFactor(node);
-
-        if (balance > 1 && key < node.left.key)
-            return rightRotate(node);
-
-        if (balance < -1 && key > node.right.key)
-            return leftRotate(node);
+    public boolean remove_key(int tkey) {
+        AVLNode<T> node = root;
+        while (node != null && node.key != tkey)
+            node = (tkey < node.key) ? node.left : node.right;
 
-        if (balance > 1 && key > node.left.key) {
-            node.left = leftRotate(node.left);
-            return rightRotate(node);
+        if (node == null) {
+            current = root;
+            return false;
         }
 
-        if (balance < -1 && key < node.right.key) {
-            node.right = rightRotate(node.right);
-            return leftRotate(node);
+        // A node with two children takes its successor's entry; the successor is unlinked instead.
+        if (node.left != null && node.right != null) {
+            AVLNode<T> successor = findMin(node.right);
+            node.key = successor.key;
+            node.data = successor.data;
+            node = successor;
         }
 
-        return node;
-    }
+        AVLNode<T> child = (node.left != null) ? node.left : node.right;
+        AVLNode<T> parent = node.parent;
+        replaceChild(parent, node, child);
+        node.parent = node.left = node.right = null;
 
-    public boolean remove_key(int tkey) {
-        BoolFlag removed = new BoolFlag(false);
-        root = removeRecursive(root, tkey, removed);
+        retrace(parent, -1);
         current = root;
-        return removed.getValue();
+        return true;
     }
 
-    // Standard AVL delete with rebalancing; BoolFlag is used to bubble up "was removed" state.
-    private AVLNode<T> removeRecursive(AVLNode<T> node, int key, BoolFlag flag) {
-        if (node == null) {
-            return null;
+    private AVLNode<T> findMin(AVLNode<T> p) {
+        if (p == null) return null;
+        while (p.left != null) {
+            p = p.left;
         }
+        return p;
+    }
 
-        if (key < node.key) {
-            node.left = removeRecursive(node.left, key, flag);
-        } else if (key > node.key) {
-            node.right = removeRecursive(node.right, key, flag);
-        } else {
-            flag.setValue(true);
-
-            if (node.left == null || node.right == null) {
-                AVLNode<T> temp = (node.left != null) ? node.left : node.right;
-
-                if (temp == null) {
-                    node = null;
-                } else {
-                    node = temp;
-                }
+    // Smallest node with key >= key, or null.
+    AVLNode<T> ceilingNode(int key) {
+        AVLNode<T> p = root, best = null;
+        while (p != null) {
+            if (p.key >= key) {
+                best = p;
+                p = p.left;
             } else {
-                AVLNode<T> temp = findMin(node.right);
-                node.key = temp.key;
-                node.data = temp.data;
+                p = p.right;
+            }
+        }
+        return best;
+    }
 
-                node.right = removeRecursive(node.right, temp.key, new BoolFlag(false));
+    // Largest node with key <= key, or null.
+    private AVLNode<T> floorNode(int key) {
+        AVLNode<T> p = root, best = null;
+        while (p != null) {
+            if (p.key <= key) {
+                best = p;
+                p = p.right;
+            } else {
+                p = p.left;
             }
         }
+        return best;
+    }
 
-        if (node == null) {
-            return null;
+    private AVLNode<T> findMaxNode(AVLNode<T> p) {
+        if (p == null) return null;
+        while (p.right != null) {
+            p = p.right;
         }
+        return p;
+    }
 
-        updateHeight(node);
-        int balance = getBalanceFactor(node);
+    // Streams all entries in ascending key order without copying them.
+    public AVLCursor<T> cursor() {
+        return new AVLCursor<>(findMin(root), false, false, 0);
+    }
 
-        if (balance > 1 && getBalanceFactor(node.left) >= 0)
-            return rightRotate(node);
+    // Streams entries in ascending order starting at the first key >= startKey.
+    public AVLCursor<T> cursorFrom(int startKey) {
+        return new AVLCursor<>(ceilingNode(startKey), false, false, 0);
+    }
 
-        if (balance > 1 && getBalanceFactor(node.left) < 0) {
-            node.left = leftRotate(node.left);
-            return rightRotate(node);
-        }
+    // Streams all entries in descending key order.
+    public AVLCursor<T> descendingCursor() {
+        return new AVLCursor<>(findMaxNode(root), true, false, 0);
+    }
 
-        if (balance < -1 && getBalanceFactor(node.right) <= 0)
-            return leftRotate(node);
+    // Streams entries in descending order starting at the last key <= startKey.
+    public AVLCursor<T> descendingCursorFrom(int startKey) {
+        return new AVLCursor<>(floorNode(startKey), true, false, 0);
+    }
 
-        if (balance < -1 && getBalanceFactor(node.right) > 0) {
-            node.right = rightRotate(node.right);
-            return leftRotate(node);
-        }
+    // Streams entries with keys in [minKey, maxKey] (inclusive) in ascending order.
+    public AVLCursor<T> rangeCursor(int minKey, int maxKey) {
+        return new AVLCursor<>(ceilingNode(minKey), false, true, maxKey);
+    }
 
-        return node;
+    // Same as inOrderTraversal() but into a chunked list (no node per element) for large scans.
+    public ChunkedList<T> inOrderChunked() {
+        ChunkedList<T> result = new ChunkedList<>();
+        for (AVLCursor<T> c = cursor(); c.valid(); c.findNext())
+            result.append(c.retrieve());
+        return result;
     }
 
-    private AVLNode<T> findMin(AVLNode<T> p) {
-        if (p == null) return null;
-        while (p.left != null) {
-            p = p.left;
-        }
-        return p;
+    // Same as rangeQuery() but into a chunked list.
+    public ChunkedList<T> rangeQueryChunked(int minKey, int maxKey) {
+        ChunkedList<T> result = new ChunkedList<>();
+        for (AVLCursor<T> c = rangeCursor(minKey, maxKey); c.valid(); c.findNext())
+            result.append(c.retrieve());
+        return result;
     }
 
     public LinkedList<T> inOrderTraversal() {
@@ -282,33 +470,113 @@ public class AVL<T> {
         inOrderRecursive(node.right, result);
     }
 
+    // Read-only lookup: unlike findkey() it leaves "current" alone, so concurrent readers
+    // of an index that is not being modified do not interfere with each other.
     public T search(int key) {
-        return findkey(key) ? current.data : null;
+        AVLNode<T> p = root;
+        while (p != null) {
+            if (key == p.key)
+                return p.data;
+            p = (key < p.key) ? p.left : p.right;
+        }
+        return null;
+    }
+
+    public boolean contains(int key) {
+        AVLNode<T> p = root;
+        while (p != null) {
+            if (key == p.key)
+                return true;
+            p = (key < p.key) ? p.left : p.right;
+        }
+        return false;
     }
 
     public boolean delete(int key) {
         return remove_key(key);
     }
 
+    // O(1): the root caches the size of the whole tree.
     public int getSize() {
-        return countNodesInSubtree(root);
+        return getSubtreeSize(root);
     }
 
-    private int countNodesInSubtree(AVLNode<T> node) {
-        if (node == null) return 0;
-        return 1 + countNodesInSubtree(node.left) + countNodesInSubtree(node.right);
+    // Returns the number of keys strictly smaller than key (key itself need not be present).
+    public int rank(int key) {
+        int r = 0;
+        AVLNode<T> p = root;
+        while (p != null) {
+            if (key <= p.key) {
+                p = p.left;
+            } else {
+                r += getSubtreeSize(p.left) + 1;
+                p = p.right;
+            }
+        }
+        return r;
+    }
+
+    // Returns the value with the i-th smallest key (0-based), or null if i is out of range.
+    public T select(int i) {
+        if (i < 0 || i >= getSize()) return null;
+
+        AVLNode<T> p = root;
+        while (p != null) {
+            int leftSize = getSubtreeSize(p.left);
+            if (i < leftSize) {
+                p = p.left;
+            } else if (i == leftSize) {
+                return p.data;
+            } else {
+                i -= leftSize + 1;
+                p = p.right;
+            }
+        }
+        return null;
+    }
+
+    // Returns the number of keys in [minKey, maxKey] (inclusive) without visiting them.
+    public int countInRange(int minKey, int maxKey) {
+        if (minKey > maxKey) return 0;
+        if (maxKey == Integer.MAX_VALUE) return getSize() - rank(minKey);
+        return rank(maxKey + 1) - rank(minKey);
     }
 
-    public LinkedList<Integer> getKeysSorted() {
-        LinkedList<Integer> result = new LinkedList<>();
+    // Returns up to count values starting at the given 0-based position, in key order.
+    public LinkedList<T> page(int offset, int count) {
+        LinkedList<T> result = new LinkedList<>();
+        if (offset < 0) offset = 0;
+        if (count <= 0 || offset >= getSize()) return result;
+        pageRecursive(root, offset, (int) Math.min((long) offset + count, getSize()), 0, result);
+        return result;
+    }
+
+    // Collects nodes whose in-order position lies in [from, to); base is the position of the subtree's first node.
+    private void pageRecursive(AVLNode<T> node, int from, int to, int base, LinkedList<T> result) {
+        if (node == null) return;
+
+        int pos = base + getSubtreeSize(node.left);
+
+        if (from < pos)
+            pageRecursive(node.left, from, to, base, result);
+
+        if (pos >= from && pos < to)
+            result.insert(node.data);
+
+        if (pos + 1 < to)
+            pageRecursive(node.right, from, to, pos + 1, result);
+    }
+
+    public IntList getKeysSorted() {
+        IntList result = new IntList(getSize());
         getKeysRecursive(root, result);
         return result;
     }
 
-    private void getKeysRecursive(AVLNode<T> node, LinkedList<Integer> result) {
+    private void getKeysRecursive(AVLNode<T> node, IntList result) {
         if (node == null) return;
         getKeysRecursive(node.left, result);
-        result.insert(node.key);
+        result.add(node.key);
         getKeysRecursive(node.right, result);
     }
 
@@ -343,19 +611,37 @@ public class AVL<T> {
 
     public T findMax() {
         if (root == null) return null;
-        AVLNode<T> node = root;
-        while (node.right != null) node = node.right;
-        return node.data;
+        return findMaxNode(root).data;
     }
 
-    public String toString() {
-        return "AVL[size=" + getSize() + ", root=" + (root != null ? root.key : "null") + "]";
+    // Verifies key order, parent links, cached heights and sizes, and the AVL balance of every node;
+    // throws IllegalStateException at the first violation. Used by the stress test.
+    void checkInvariants() {
+        if (root != null && root.parent != null)
+            throw new IllegalStateException("root has a parent");
+        checkRecursive(root, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // Returns the height of the subtree; keys must lie strictly inside (lo, hi).
+    private int checkRecursive(AVLNode<T> node, long lo, long hi) {
+        if (node == null) return 0;
+        if (node.key <= lo || node.key >= hi)
+            throw new IllegalStateException("key " + node.key + " out of order");
+        if ((node.left != null && node.left.parent != node) || (node.right != null && node.right.parent != node))
+            throw new IllegalStateException("broken parent link below " + node.key);
+
+        int hl = checkRecursive(node.left, lo, node.key);
+        int hr = checkRecursive(node.right, node.key, hi);
+        if (node.height != 1 + Math.max(hl, hr))
+            throw new IllegalStateException("stale height at " + node.key);
+        if (Math.abs(hl - hr) > 1)
+            throw new IllegalStateException("unbalanced at " + node.key);
+        if (node.size != 1 + getSubtreeSize(node.left) + getSubtreeSize(node.right))
+            throw new IllegalStateException("stale size at " + node.key);
+        return node.height;
     }
 
-    private static class BoolFlag {
-        private boolean value;
-        public BoolFlag(boolean v) { value = v; }
-        public boolean getValue() { return value; }
-        public void setValue(boolean v) { value = v; }
+    public String toString() {
+        return "AVL[size=" + getSize() + ", root=" + (root != null ? root.key : "null") + "]";
     }
 }
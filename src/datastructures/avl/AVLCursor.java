@@ -0,0 +1,67 @@
+package datastructures.avl;
+
+// Lazy in-order cursor over an AVL tree. It follows parent links, so it keeps no stack and
+// allocates nothing per step. Callers can stop at any time simply by not calling findNext() again.
+// The cursor must not be used across structural changes (insert/remove) of the underlying tree.
+public class AVLCursor<T> implements OrderedIndex.Cursor<T> {
+
+    private AVLNode<T> current;
+    private final boolean descending;
+    private final boolean bounded;
+    private final int endKey;
+
+    // start is the first node to visit (may be null); endKey is inclusive when bounded.
+    AVLCursor(AVLNode<T> start, boolean descending, boolean bounded, int endKey) {
+        this.descending = descending;
+        this.bounded = bounded;
+        this.endKey = endKey;
+        current = start;
+        checkEnd();
+    }
+
+    public boolean valid() {
+        return current != null;
+    }
+
+    public int key() {
+        return current.key;
+    }
+
+    public T retrieve() {
+        return current.data;
+    }
+
+    public void findNext() {
+        current = descending ? predecessor(current) : successor(current);
+        checkEnd();
+    }
+
+    private void checkEnd() {
+        if (current != null && bounded) {
+            if (descending ? current.key < endKey : current.key > endKey)
+                current = null;
+        }
+    }
+
+    static <T> AVLNode<T> successor(AVLNode<T> p) {
+        if (p.right != null) {
+            p = p.right;
+            while (p.left != null) p = p.left;
+            return p;
+        }
+        while (p.parent != null && p.parent.right == p)
+            p = p.parent;
+        return p.parent;
+    }
+
+    static <T> AVLNode<T> predecessor(AVLNode<T> p) {
+        if (p.left != null) {
+            p = p.left;
+            while (p.right != null) p = p.right;
+            return p;
+        }
+        while (p.parent != null && p.parent.left == p)
+            p = p.parent;
+        return p.parent;
+    }
+}
@@ -3,15 +3,17 @@ package datastructures.avl;
 public class AVLNode<T> {
     public int key;
     public T data;
-    public AVLNode<T> left, right;
+    public AVLNode<T> left, right, parent;
     public int height;  
+    public int size;    // number of nodes in the subtree rooted here
     
     
     public AVLNode(int k, T val) {
         key = k;
         data = val;
-        left = right = null;
+        left = right = parent = null;
         height = 1;  
+        size = 1;
     }
     
     
@@ -20,6 +22,8 @@ public class AVLNode<T> {
         data = val;
         left = l;
         right = r;
+        parent = null;
         height = 1;  
+        size = 1;
     }
 }
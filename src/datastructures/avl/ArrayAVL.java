@@ -0,0 +1,316 @@
+package datastructures.avl;
+
+// AVL map from int keys to values with the tree structure held in an int array, like IntAVL.
+// A node is an index into nodes (key, left, right, height) and data; there are no node objects,
+// so a node costs 16 bytes of ints plus one data reference instead of a full AVLNode with its
+// header and pointers. Deleted slots are chained through their left field into a free list and
+// reused by later inserts. Offers the core AVL operations; order statistics and cursors stay with AVL.
+public class ArrayAVL<T> {
+
+    private static final int NIL = -1;
+
+    // Node n occupies nodes[n * STRIDE .. n * STRIDE + 3]: key, left, right, height. Keeping them
+    // together means one cache line per level of a search, where parallel arrays would touch two.
+    private static final int STRIDE = 4;
+    private static final int KEY = 0, LEFT = 1, RIGHT = 2, HEIGHT = 3;
+
+    private int[] nodes;
+    private Object[] data;
+    private int root;
+    private int size;
+    private int used;       // slots handed out so far; slots below used are live or on the free list
+    private int free;       // head of the free list
+
+    public ArrayAVL() {
+        this(16);
+    }
+
+    public ArrayAVL(int capacity) {
+        capacity = Math.max(capacity, 1);
+        nodes = new int[capacity * STRIDE];
+        data = new Object[capacity];
+        root = NIL;
+        free = NIL;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public T search(int key) {
+        int n = findNode(key);
+        return (n == NIL) ? null : value(n);
+    }
+
+    public boolean contains(int key) {
+        return findNode(key) != NIL;
+    }
+
+    // Adds (key, val); returns false and leaves the tree unchanged if key already exists.
+    public boolean insert(int key, T val) {
+        int before = size;
+        root = insertRecursive(root, key, val);
+        return size != before;
+    }
+
+    // Replaces the value stored for key; false if the key is absent.
+    public boolean update(int key, T val) {
+        int n = findNode(key);
+        if (n == NIL) return false;
+        data[n] = val;
+        return true;
+    }
+
+    public boolean delete(int key) {
+        int before = size;
+        root = deleteRecursive(root, key);
+        return size != before;
+    }
+
+    public T findMin() {
+        if (root == NIL) return null;
+        int n = root;
+        while (left(n) != NIL) n = left(n);
+        return value(n);
+    }
+
+    public T findMax() {
+        if (root == NIL) return null;
+        int n = root;
+        while (right(n) != NIL) n = right(n);
+        return value(n);
+    }
+
+    // Returns all values with keys in [minKey, maxKey] (inclusive).
+    public LinkedList<T> rangeQuery(int minKey, int maxKey) {
+        LinkedList<T> result = new LinkedList<>();
+        rangeQueryRecursive(root, minKey, maxKey, result);
+        return result;
+    }
+
+    public LinkedList<T> inOrderTraversal() {
+        return rangeQuery(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public IntList getKeysSorted() {
+        IntList result = new IntList(size);
+        keysRecursive(root, result);
+        return result;
+    }
+
+    // Shrinks the arrays to the live nodes, renumbering them in key order (which also makes
+    // in-order scans walk the arrays front to back). Clears the free list.
+    public void compact() {
+        int n = size;
+        int[] k = new int[Math.max(n, 1)];
+        Object[] d = new Object[Math.max(n, 1)];
+        int[] count = new int[1];
+        collect(root, k, d, count);
+
+        nodes = new int[k.length * STRIDE];
+        data = d;
+        for (int i = 0; i < n; i++) {
+            nodes[i * STRIDE + KEY] = k[i];
+        }
+        used = n;
+        free = NIL;
+        root = build(0, n - 1);
+    }
+
+    private void collect(int n, int[] k, Object[] d, int[] count) {
+        if (n == NIL) return;
+        collect(left(n), k, d, count);
+        k[count[0]] = key(n);
+        d[count[0]] = data[n];
+        count[0]++;
+        collect(right(n), k, d, count);
+    }
+
+    // Links slots lo..hi (already in key order) into a balanced subtree; returns its root.
+    private int build(int lo, int hi) {
+        if (lo > hi) return NIL;
+        int mid = (lo + hi) >>> 1;
+        setLeft(mid, build(lo, mid - 1));
+        setRight(mid, build(mid + 1, hi));
+        updateHeight(mid);
+        return mid;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(int n) {
+        return (T) data[n];
+    }
+
+    private int findNode(int key) {
+        int n = root;
+        while (n != NIL) {
+            if (key == key(n)) return n;
+            n = (key < key(n)) ? left(n) : right(n);
+        }
+        return NIL;
+    }
+
+    private void rangeQueryRecursive(int n, int minKey, int maxKey, LinkedList<T> result) {
+        if (n == NIL) return;
+
+        if (key(n) > minKey)
+            rangeQueryRecursive(left(n), minKey, maxKey, result);
+
+        if (key(n) >= minKey && key(n) <= maxKey)
+            result.insert(value(n));
+
+        if (key(n) < maxKey)
+            rangeQueryRecursive(right(n), minKey, maxKey, result);
+    }
+
+    private void keysRecursive(int n, IntList result) {
+        if (n == NIL) return;
+        keysRecursive(left(n), result);
+        result.add(key(n));
+        keysRecursive(right(n), result);
+    }
+
+    private int newNode(int key, T val) {
+        int n;
+        if (free != NIL) {
+            n = free;
+            free = left(n);
+        } else {
+            if (used == data.length) grow();
+            n = used++;
+        }
+        int b = n * STRIDE;
+        nodes[b + KEY] = key;
+        nodes[b + LEFT] = NIL;
+        nodes[b + RIGHT] = NIL;
+        nodes[b + HEIGHT] = 1;
+        data[n] = val;
+        size++;
+        return n;
+    }
+
+    private void freeNode(int n) {
+        data[n] = null;     // let the value be collected
+        setLeft(n, free);
+        free = n;
+        size--;
+    }
+
+    private void grow() {
+        int capacity = data.length * 2;
+        int[] n = new int[capacity * STRIDE];
+        System.arraycopy(nodes, 0, n, 0, nodes.length);
+        nodes = n;
+        Object[] d = new Object[capacity];
+        System.arraycopy(data, 0, d, 0, data.length);
+        data = d;
+    }
+
+    private int key(int n) { return nodes[n * STRIDE + KEY]; }
+    private int left(int n) { return nodes[n * STRIDE + LEFT]; }
+    private int right(int n) { return nodes[n * STRIDE + RIGHT]; }
+    private void setLeft(int n, int child) { nodes[n * STRIDE + LEFT] = child; }
+    private void setRight(int n, int child) { nodes[n * STRIDE + RIGHT] = child; }
+
+    private int getHeight(int n) {
+        return (n == NIL) ? 0 : nodes[n * STRIDE + HEIGHT];
+    }
+
+    private void updateHeight(int n) {
+        nodes[n * STRIDE + HEIGHT] = 1 + Math.max(getHeight(left(n)), getHeight(right(n)));
+    }
+
+    private int getBalance(int n) {
+        return getHeight(left(n)) - getHeight(right(n));
+    }
+
+    private int rightRotate(int y) {
+        int x = left(y);
+        setLeft(y, right(x));
+        setRight(x, y);
+        updateHeight(y);
+        updateHeight(x);
+        return x;
+    }
+
+    private int leftRotate(int x) {
+        int y = right(x);
+        setRight(x, left(y));
+        setLeft(y, x);
+        updateHeight(x);
+        updateHeight(y);
+        return y;
+    }
+
+    // Restores the AVL property at n after one of its subtrees changed height by one.
+    private int rebalance(int n) {
+        updateHeight(n);
+        int balance = getBalance(n);
+
+        if (balance > 1) {
+            if (getBalance(left(n)) < 0)
+                setLeft(n, leftRotate(left(n)));
+            return rightRotate(n);
+        }
+
+        if (balance < -1) {
+            if (getBalance(right(n)) > 0)
+                setRight(n, rightRotate(right(n)));
+            return leftRotate(n);
+        }
+
+        return n;
+    }
+
+    private int insertRecursive(int n, int key, T val) {
+        if (n == NIL) {
+            return newNode(key, val);
+        }
+
+        // The child is computed before the store: a nested insert may grow (replace) the arrays.
+        if (key < key(n)) {
+            int child = insertRecursive(left(n), key, val);
+            setLeft(n, child);
+        } else if (key > key(n)) {
+            int child = insertRecursive(right(n), key, val);
+            setRight(n, child);
+        } else {
+            return n;
+        }
+
+        return rebalance(n);
+    }
+
+    private int deleteRecursive(int n, int key) {
+        if (n == NIL) {
+            return NIL;
+        }
+
+        if (key < key(n)) {
+            setLeft(n, deleteRecursive(left(n), key));
+        } else if (key > key(n)) {
+            setRight(n, deleteRecursive(right(n), key));
+        } else if (left(n) == NIL || right(n) == NIL) {
+            int child = (left(n) != NIL) ? left(n) : right(n);
+            freeNode(n);
+            return child;
+        } else {
+            // Two children: take over the successor's entry, then remove the successor.
+            int s = right(n);
+            while (left(s) != NIL) s = left(s);
+            nodes[n * STRIDE + KEY] = key(s);
+            data[n] = data[s];
+            setRight(n, deleteRecursive(right(n), key(s)));
+        }
+
+        return rebalance(n);
+    }
+
+    public String toString() {
+        return "ArrayAVL[size=" + size + ", root=" + (root != NIL ? key(root) : "null") + "]";
+    }
+}
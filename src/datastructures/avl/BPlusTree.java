@@ -0,0 +1,550 @@
+package datastructures.avl;
+
+import java.util.function.ToIntFunction;
+
+// B+-tree map from int keys to values. Inner nodes hold up to INNER_CAPACITY separator keys in an
+// int array, so a lookup in a few million keys visits 3-4 nodes instead of ~22 AVL nodes, and the
+// keys of a node share a handful of cache lines. All values sit in the leaves, which are linked
+// left to right: cursors and range scans walk the leaf arrays without going back up the tree.
+// Nodes other than the root stay at least half full. Not thread-safe.
+public class BPlusTree<T> implements OrderedIndex<T> {
+
+    private static final int LEAF_CAPACITY = 64;
+    private static final int INNER_CAPACITY = 64;     // separator keys; children = keys + 1
+    private static final int LEAF_MIN = LEAF_CAPACITY / 2;
+    private static final int INNER_MIN = INNER_CAPACITY / 2;
+
+    private static class Node {
+        final int[] keys;
+        int n;      // keys in use
+
+        Node(int capacity) {
+            keys = new int[capacity];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] values = new Object[LEAF_CAPACITY];
+        Leaf next;
+
+        Leaf() {
+            super(LEAF_CAPACITY);
+        }
+    }
+
+    // children[i] holds the keys k with keys[i-1] <= k < keys[i].
+    private static final class Inner extends Node {
+        final Node[] children = new Node[INNER_CAPACITY + 1];
+
+        Inner() {
+            super(INNER_CAPACITY);
+        }
+    }
+
+    private Node root;
+    private Leaf first;
+    private int size;
+
+    // Set by insertRecursive when a node splits: the first key of the new right sibling.
+    private int splitKey;
+
+    public BPlusTree() {
+        root = first = new Leaf();
+    }
+
+    // Bulk-loads the list bottom-up with nodes filled as evenly as possible; linear when the list
+    // is sorted by key (see AVL.buildFromSorted).
+    public static <T> BPlusTree<T> buildFromSorted(LinkedList<T> list, ToIntFunction<T> keyOf) {
+        BPlusTree<T> tree = new BPlusTree<>();
+        if (list == null || list.empty()) return tree;
+
+        int n = list.getSize();
+        int[] keys = new int[n];
+        @SuppressWarnings("unchecked")
+        T[] values = (T[]) new Object[n];
+
+        list.findFirst();
+        for (int i = 0; i < n; i++) {
+            values[i] = list.retrieve();
+            keys[i] = keyOf.applyAsInt(values[i]);
+            if (!list.last()) list.findNext();
+        }
+        n = AVL.sortUnique(keys, values, n);
+
+        // Leaf level.
+        int count = (n + LEAF_CAPACITY - 1) / LEAF_CAPACITY;
+        Node[] level = new Node[count];
+        int[] minKeys = new int[count];
+        Leaf prev = null;
+        for (int i = 0, from = 0; i < count; i++) {
+            int to = (int) ((long) n * (i + 1) / count);
+            Leaf leaf = new Leaf();
+            leaf.n = to - from;
+            System.arraycopy(keys, from, leaf.keys, 0, leaf.n);
+            System.arraycopy(values, from, leaf.values, 0, leaf.n);
+            if (prev == null) tree.first = leaf;
+            else prev.next = leaf;
+            prev = leaf;
+            level[i] = leaf;
+            minKeys[i] = keys[from];
+            from = to;
+        }
+
+        // Inner levels until a single root remains.
+        while (count > 1) {
+            int parents = (count + INNER_CAPACITY) / (INNER_CAPACITY + 1);
+            Node[] up = new Node[parents];
+            int[] upMin = new int[parents];
+            for (int i = 0, from = 0; i < parents; i++) {
+                int to = (int) ((long) count * (i + 1) / parents);
+                Inner inner = new Inner();
+                inner.n = to - from - 1;
+                for (int c = from; c < to; c++) {
+                    inner.children[c - from] = level[c];
+                    if (c > from) inner.keys[c - from - 1] = minKeys[c];
+                }
+                up[i] = inner;
+                upMin[i] = minKeys[from];
+                from = to;
+            }
+            level = up;
+            minKeys = upMin;
+            count = parents;
+        }
+
+        tree.root = level[0];
+        tree.size = n;
+        return tree;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public T search(int key) {
+        Leaf leaf = findLeaf(key);
+        int i = lowerBound(leaf.keys, leaf.n, key);
+        return (i < leaf.n && leaf.keys[i] == key) ? value(leaf, i) : null;
+    }
+
+    public boolean contains(int key) {
+        Leaf leaf = findLeaf(key);
+        int i = lowerBound(leaf.keys, leaf.n, key);
+        return i < leaf.n && leaf.keys[i] == key;
+    }
+
+    public boolean insert(int key, T value) {
+        int before = size;
+        Node right = insertRecursive(root, key, value);
+        if (right != null) {
+            Inner newRoot = new Inner();
+            newRoot.keys[0] = splitKey;
+            newRoot.children[0] = root;
+            newRoot.children[1] = right;
+            newRoot.n = 1;
+            root = newRoot;
+        }
+        return size != before;
+    }
+
+    public boolean delete(int key) {
+        int before = size;
+        deleteRecursive(root, key);
+        if (root instanceof Inner && root.n == 0) {
+            root = ((Inner) root).children[0];
+        }
+        return size != before;
+    }
+
+    public T findMin() {
+        return (size == 0) ? null : value(first, 0);
+    }
+
+    public T findMax() {
+        if (size == 0) return null;
+        Node p = root;
+        while (p instanceof Inner) p = ((Inner) p).children[p.n];
+        return value((Leaf) p, p.n - 1);
+    }
+
+    public LinkedList<T> rangeQuery(int minKey, int maxKey) {
+        LinkedList<T> result = new LinkedList<>();
+        for (Cursor<T> c = rangeCursor(minKey, maxKey); c.valid(); c.findNext())
+            result.insert(c.retrieve());
+        return result;
+    }
+
+    public LinkedList<T> inOrderTraversal() {
+        LinkedList<T> result = new LinkedList<>();
+        for (Cursor<T> c = cursor(); c.valid(); c.findNext())
+            result.insert(c.retrieve());
+        return result;
+    }
+
+    public ChunkedList<T> inOrderChunked() {
+        ChunkedList<T> result = new ChunkedList<>();
+        for (Cursor<T> c = cursor(); c.valid(); c.findNext())
+            result.append(c.retrieve());
+        return result;
+    }
+
+    // Leaves keep no subtree sizes, so this skips whole leaves along the chain: O(offset / 64 + count).
+    public LinkedList<T> page(int offset, int count) {
+        LinkedList<T> result = new LinkedList<>();
+        if (offset < 0) offset = 0;
+        if (count <= 0 || offset >= size) return result;
+
+        Leaf leaf = first;
+        while (offset >= leaf.n) {
+            offset -= leaf.n;
+            leaf = leaf.next;
+        }
+        for (int i = offset; leaf != null && count > 0; leaf = leaf.next, i = 0) {
+            for (; i < leaf.n && count > 0; i++, count--)
+                result.insert(value(leaf, i));
+        }
+        return result;
+    }
+
+    public Cursor<T> cursor() {
+        return new Cursor<>(first, 0, Integer.MAX_VALUE);
+    }
+
+    public Cursor<T> rangeCursor(int minKey, int maxKey) {
+        Leaf leaf = findLeaf(minKey);
+        return new Cursor<>(leaf, lowerBound(leaf.keys, leaf.n, minKey), maxKey);
+    }
+
+    public IntList getKeysSorted() {
+        IntList result = new IntList(size);
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.n; i++)
+                result.add(leaf.keys[i]);
+        }
+        return result;
+    }
+
+    // Walks the leaf chain from a position; stops after maxKey.
+    public static class Cursor<T> implements OrderedIndex.Cursor<T> {
+
+        private Leaf leaf;
+        private int index;
+        private final int maxKey;
+
+        private Cursor(Leaf leaf, int index, int maxKey) {
+            this.leaf = leaf;
+            this.index = index;
+            this.maxKey = maxKey;
+            settle();
+        }
+
+        public boolean valid() {
+            return leaf != null;
+        }
+
+        public int key() {
+            return leaf.keys[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        public T retrieve() {
+            return (T) leaf.values[index];
+        }
+
+        public void findNext() {
+            index++;
+            settle();
+        }
+
+        // Moves past exhausted leaves and ends the cursor once the key exceeds maxKey.
+        private void settle() {
+            while (leaf != null && index >= leaf.n) {
+                leaf = leaf.next;
+                index = 0;
+            }
+            if (leaf != null && leaf.keys[index] > maxKey) leaf = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(Leaf leaf, int i) {
+        return (T) leaf.values[i];
+    }
+
+    private Leaf findLeaf(int key) {
+        Node p = root;
+        while (p instanceof Inner) {
+            p = ((Inner) p).children[upperBound(p.keys, p.n, key)];
+        }
+        return (Leaf) p;
+    }
+
+    // First index in keys[0..n) whose key is >= key.
+    private static int lowerBound(int[] keys, int n, int key) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // First index in keys[0..n) whose key is > key, i.e. the child to descend into.
+    private static int upperBound(int[] keys, int n, int key) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Inserts into the subtree at node; returns the new right sibling if node split (its first
+    // key in splitKey), otherwise null.
+    private Node insertRecursive(Node node, int key, T value) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = lowerBound(leaf.keys, leaf.n, key);
+            if (i < leaf.n && leaf.keys[i] == key) return null;
+            size++;
+
+            if (leaf.n < LEAF_CAPACITY) {
+                insertAt(leaf, i, key, value);
+                return null;
+            }
+
+            // Split in half, then insert into the half the key belongs to.
+            Leaf right = new Leaf();
+            int half = LEAF_CAPACITY / 2;
+            right.n = LEAF_CAPACITY - half;
+            System.arraycopy(leaf.keys, half, right.keys, 0, right.n);
+            System.arraycopy(leaf.values, half, right.values, 0, right.n);
+            for (int j = half; j < LEAF_CAPACITY; j++) leaf.values[j] = null;
+            leaf.n = half;
+            right.next = leaf.next;
+            leaf.next = right;
+
+            if (i <= half) insertAt(leaf, i, key, value);
+            else insertAt(right, i - half, key, value);
+            splitKey = right.keys[0];
+            return right;
+        }
+
+        Inner inner = (Inner) node;
+        int c = upperBound(inner.keys, inner.n, key);
+        Node child = insertRecursive(inner.children[c], key, value);
+        if (child == null) return null;
+
+        if (inner.n < INNER_CAPACITY) {
+            insertChild(inner, c, splitKey, child);
+            return null;
+        }
+
+        // Full: build the INNER_CAPACITY + 1 keys in a scratch array and split around the middle
+        // one, which moves up instead of staying in either half.
+        int[] keys = new int[INNER_CAPACITY + 1];
+        Node[] children = new Node[INNER_CAPACITY + 2];
+        System.arraycopy(inner.keys, 0, keys, 0, c);
+        keys[c] = splitKey;
+        System.arraycopy(inner.keys, c, keys, c + 1, INNER_CAPACITY - c);
+        System.arraycopy(inner.children, 0, children, 0, c + 1);
+        children[c + 1] = child;
+        System.arraycopy(inner.children, c + 1, children, c + 2, INNER_CAPACITY - c);
+
+        int mid = (INNER_CAPACITY + 1) / 2;
+        Inner right = new Inner();
+        inner.n = mid;
+        System.arraycopy(keys, 0, inner.keys, 0, mid);
+        System.arraycopy(children, 0, inner.children, 0, mid + 1);
+        for (int j = mid + 1; j <= INNER_CAPACITY; j++) inner.children[j] = null;
+        right.n = INNER_CAPACITY - mid;
+        System.arraycopy(keys, mid + 1, right.keys, 0, right.n);
+        System.arraycopy(children, mid + 1, right.children, 0, right.n + 1);
+
+        splitKey = keys[mid];
+        return right;
+    }
+
+    private static void insertAt(Leaf leaf, int i, int key, Object value) {
+        System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.n - i);
+        System.arraycopy(leaf.values, i, leaf.values, i + 1, leaf.n - i);
+        leaf.keys[i] = key;
+        leaf.values[i] = value;
+        leaf.n++;
+    }
+
+    // Adds separator key and its right child after children[c].
+    private static void insertChild(Inner inner, int c, int key, Node child) {
+        System.arraycopy(inner.keys, c, inner.keys, c + 1, inner.n - c);
+        System.arraycopy(inner.children, c + 1, inner.children, c + 2, inner.n - c);
+        inner.keys[c] = key;
+        inner.children[c + 1] = child;
+        inner.n++;
+    }
+
+    // Deletes key from the subtree at node. A child left under half full borrows an entry from a
+    // sibling or is merged with one; the caller shrinks the root when it runs out of keys.
+    private void deleteRecursive(Node node, int key) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = lowerBound(leaf.keys, leaf.n, key);
+            if (i == leaf.n || leaf.keys[i] != key) return;
+            System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.n - i - 1);
+            System.arraycopy(leaf.values, i + 1, leaf.values, i, leaf.n - i - 1);
+            leaf.values[--leaf.n] = null;
+            size--;
+            return;
+        }
+
+        Inner inner = (Inner) node;
+        int c = upperBound(inner.keys, inner.n, key);
+        Node child = inner.children[c];
+        deleteRecursive(child, key);
+
+        int min = (child instanceof Leaf) ? LEAF_MIN : INNER_MIN;
+        if (child.n >= min) return;
+
+        Node left = (c > 0) ? inner.children[c - 1] : null;
+        Node right = (c < inner.n) ? inner.children[c + 1] : null;
+        if (left != null && left.n > min) {
+            borrowFromLeft(inner, c);
+        } else if (right != null && right.n > min) {
+            borrowFromRight(inner, c);
+        } else if (left != null) {
+            merge(inner, c - 1);
+        } else {
+            merge(inner, c);
+        }
+    }
+
+    // Moves the last entry of children[c - 1] to the front of children[c].
+    private static void borrowFromLeft(Inner parent, int c) {
+        Node child = parent.children[c];
+        Node left = parent.children[c - 1];
+
+        if (child instanceof Leaf) {
+            Leaf l = (Leaf) left, ch = (Leaf) child;
+            insertAt(ch, 0, l.keys[l.n - 1], l.values[l.n - 1]);
+            l.values[--l.n] = null;
+            parent.keys[c - 1] = ch.keys[0];
+            return;
+        }
+
+        Inner l = (Inner) left, ch = (Inner) child;
+        System.arraycopy(ch.keys, 0, ch.keys, 1, ch.n);
+        System.arraycopy(ch.children, 0, ch.children, 1, ch.n + 1);
+        ch.keys[0] = parent.keys[c - 1];
+        ch.children[0] = l.children[l.n];
+        ch.n++;
+        parent.keys[c - 1] = l.keys[l.n - 1];
+        l.children[l.n] = null;
+        l.n--;
+    }
+
+    // Moves the first entry of children[c + 1] to the end of children[c].
+    private static void borrowFromRight(Inner parent, int c) {
+        Node child = parent.children[c];
+        Node right = parent.children[c + 1];
+
+        if (child instanceof Leaf) {
+            Leaf r = (Leaf) right, ch = (Leaf) child;
+            insertAt(ch, ch.n, r.keys[0], r.values[0]);
+            System.arraycopy(r.keys, 1, r.keys, 0, r.n - 1);
+            System.arraycopy(r.values, 1, r.values, 0, r.n - 1);
+            r.values[--r.n] = null;
+            parent.keys[c] = r.keys[0];
+            return;
+        }
+
+        Inner r = (Inner) right, ch = (Inner) child;
+        ch.keys[ch.n] = parent.keys[c];
+        ch.children[ch.n + 1] = r.children[0];
+        ch.n++;
+        parent.keys[c] = r.keys[0];
+        System.arraycopy(r.keys, 1, r.keys, 0, r.n - 1);
+        System.arraycopy(r.children, 1, r.children, 0, r.n);
+        r.children[r.n] = null;
+        r.n--;
+    }
+
+    // Appends children[c + 1] to children[c] and removes it (and separator c) from the parent.
+    private static void merge(Inner parent, int c) {
+        Node left = parent.children[c];
+        Node right = parent.children[c + 1];
+
+        if (left instanceof Leaf) {
+            Leaf l = (Leaf) left, r = (Leaf) right;
+            System.arraycopy(r.keys, 0, l.keys, l.n, r.n);
+            System.arraycopy(r.values, 0, l.values, l.n, r.n);
+            l.n += r.n;
+            l.next = r.next;
+        } else {
+            Inner l = (Inner) left, r = (Inner) right;
+            l.keys[l.n] = parent.keys[c];
+            System.arraycopy(r.keys, 0, l.keys, l.n + 1, r.n);
+            System.arraycopy(r.children, 0, l.children, l.n + 1, r.n + 1);
+            l.n += r.n + 1;
+        }
+
+        System.arraycopy(parent.keys, c + 1, parent.keys, c, parent.n - c - 1);
+        System.arraycopy(parent.children, c + 2, parent.children, c + 1, parent.n - c - 1);
+        parent.children[parent.n] = null;
+        parent.n--;
+    }
+
+    // Verifies key order and separator bounds, equal leaf depth, the half-full rule below the root,
+    // and that the leaf chain holds exactly size entries in order; throws IllegalStateException at
+    // the first violation. Used by the model check.
+    void checkInvariants() {
+        int[] leafDepth = {-1};
+        Leaf[] expectedLeaf = {first};
+        checkRecursive(root, Long.MIN_VALUE, Long.MAX_VALUE, 0, leafDepth, expectedLeaf);
+        if (expectedLeaf[0] != null)
+            throw new IllegalStateException("leaf chain runs past the last leaf");
+
+        int count = 0;
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next)
+            count += leaf.n;
+        if (count != size)
+            throw new IllegalStateException("leaves hold " + count + " entries, size is " + size);
+    }
+
+    // Keys of the subtree must lie in [lo, hi); leaves must be reached in chain order.
+    private void checkRecursive(Node node, long lo, long hi, int depth, int[] leafDepth, Leaf[] expectedLeaf) {
+        if (node != root && node.n < (node instanceof Leaf ? LEAF_MIN : INNER_MIN))
+            throw new IllegalStateException("underfull node at depth " + depth);
+        for (int i = 0; i < node.n; i++) {
+            if (node.keys[i] < lo || node.keys[i] >= hi || (i > 0 && node.keys[i] <= node.keys[i - 1]))
+                throw new IllegalStateException("key " + node.keys[i] + " out of order");
+        }
+
+        if (node instanceof Leaf) {
+            if (leafDepth[0] < 0) leafDepth[0] = depth;
+            else if (leafDepth[0] != depth)
+                throw new IllegalStateException("leaves at depths " + leafDepth[0] + " and " + depth);
+            if (node != expectedLeaf[0])
+                throw new IllegalStateException("leaf chain out of order");
+            expectedLeaf[0] = ((Leaf) node).next;
+            return;
+        }
+
+        Inner inner = (Inner) node;
+        if (inner.n < 1)
+            throw new IllegalStateException("inner node without separators");
+        for (int i = 0; i <= inner.n; i++) {
+            long from = (i == 0) ? lo : inner.keys[i - 1];
+            long to = (i == inner.n) ? hi : inner.keys[i];
+            checkRecursive(inner.children[i], from, to, depth + 1, leafDepth, expectedLeaf);
+        }
+    }
+
+    public String toString() {
+        return "BPlusTree[size=" + size + ", root=" + (size > 0 ? root.keys[0] : "null") + "]";
+    }
+}
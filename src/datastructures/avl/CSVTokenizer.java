@@ -0,0 +1,311 @@
+package datastructures.avl;
+
+import java.io.IOException;
+import java.io.Reader;
+
+// Single-pass CSV tokenizer (RFC 4180 style). A small state machine copies each record's field
+// contents into one reusable char buffer, so no per-line String or String[] is created; numbers
+// are parsed straight from that buffer. Quoted fields may contain commas, line breaks and
+// escaped quotes (""). Unquoted fields are trimmed, and blank lines are skipped.
+public class CSVTokenizer {
+
+    static final int START = 0, UNQUOTED = 1, QUOTED = 2, QUOTE_IN_QUOTED = 3, AFTER_QUOTED = 4;
+    static final int STATES = 5;
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Input: either a Reader refilling in, or a fixed slice of in.
+    private final Reader reader;
+    private char[] in;
+    private int pos, limit;
+
+    // Current record: field i is record[fieldStart[i] .. fieldEnd[i]).
+    private char[] record = new char[256];
+    private int recordLength;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private int fields;
+    private boolean quotedOnly;   // record is a single explicitly quoted field (not a blank line)
+
+    public CSVTokenizer(Reader reader) {
+        this.reader = reader;
+        in = new char[1 << 16];
+        pos = limit = 0;
+    }
+
+    // Tokenizes chars[from, to) without copying the input.
+    public CSVTokenizer(char[] chars, int from, int to) {
+        reader = null;
+        in = chars;
+        pos = from;
+        limit = to;
+    }
+
+    // Next input char, or -1 at end of input.
+    private int read() throws IOException {
+        if (pos == limit) {
+            if (reader == null) return -1;
+            int n = reader.read(in, 0, in.length);
+            if (n <= 0) return -1;
+            pos = 0;
+            limit = n;
+        }
+        return in[pos++];
+    }
+
+    // Advances to the next non-blank record; returns false at end of input.
+    public boolean nextRecord() throws IOException {
+        while (true) {
+            int c = parseRecord();
+            if (fields > 1 || fieldEnd[0] > fieldStart[0] || quotedOnly)
+                return true;
+            if (c == -1)
+                return false;
+        }
+    }
+
+    // Parses one physical record into the buffers; returns the char that ended it (-1 at EOF).
+    private int parseRecord() throws IOException {
+        recordLength = 0;
+        fields = 0;
+        quotedOnly = false;
+        int state = START;
+        int start = 0, lastNonSpace = 0;
+        boolean anyQuoted = false;
+
+        while (true) {
+            int c = read();
+
+            if (c == -1 || ((c == '\n' || c == '\r') && state != QUOTED)) {
+                if (state == START)
+                    endField(recordLength, recordLength);
+                else if (state == UNQUOTED)
+                    endField(start, lastNonSpace);
+                else
+                    endField(start, recordLength);
+                if (c == '\r' && peekNewline())
+                    pos++;
+                quotedOnly = fields == 1 && anyQuoted;
+                return c;
+            }
+
+            switch (state) {
+                case START:
+                    if (c == '"') {
+                        state = QUOTED;
+                        anyQuoted = true;
+                        start = recordLength;
+                    } else if (c == ',') {
+                        endField(recordLength, recordLength);
+                    } else if (c != ' ' && c != '\t') {
+                        state = UNQUOTED;
+                        start = recordLength;
+                        append((char) c);
+                        lastNonSpace = recordLength;
+                    }
+                    break;
+
+                case UNQUOTED:
+                    if (c == ',') {
+                        endField(start, lastNonSpace);
+                        state = START;
+                    } else {
+                        append((char) c);
+                        if (c != ' ' && c != '\t')
+                            lastNonSpace = recordLength;
+                    }
+                    break;
+
+                case QUOTED:
+                    if (c == '"')
+                        state = QUOTE_IN_QUOTED;
+                    else
+                        append((char) c);
+                    break;
+
+                case QUOTE_IN_QUOTED:
+                    if (c == '"') {
+                        append('"');          // "" inside quotes is one literal quote
+                        state = QUOTED;
+                    } else if (c == ',') {
+                        endField(start, recordLength);
+                        state = START;
+                    } else {
+                        state = AFTER_QUOTED; // stray text after the closing quote is ignored
+                    }
+                    break;
+
+                case AFTER_QUOTED:
+                    if (c == ',') {
+                        endField(start, recordLength);
+                        state = START;
+                    }
+                    break;
+            }
+        }
+    }
+
+    // The state parseRecord moves to from state on c, without the field bookkeeping; a line break
+    // outside a quoted field ends the record and returns START. A quote opens a quoted field only
+    // at the start of a field; inside an unquoted field it is a literal. Lets ParallelCSVLoader
+    // find record starts by the same rules.
+    static int next(int state, int c) {
+        if ((c == '\n' || c == '\r') && state != QUOTED)
+            return START;
+        switch (state) {
+            case START:
+                if (c == '"') return QUOTED;
+                return (c == ',' || c == ' ' || c == '\t') ? START : UNQUOTED;
+            case UNQUOTED:
+                return (c == ',') ? START : UNQUOTED;
+            case QUOTED:
+                return (c == '"') ? QUOTE_IN_QUOTED : QUOTED;
+            case QUOTE_IN_QUOTED:
+                if (c == '"') return QUOTED;
+                return (c == ',') ? START : AFTER_QUOTED;
+            default:
+                return (c == ',') ? START : AFTER_QUOTED;
+        }
+    }
+
+    // True if the next input char is '\n' (for \r\n line endings); only looks inside the buffer.
+    private boolean peekNewline() throws IOException {
+        if (pos == limit) {
+            if (reader == null) return false;
+            int n = reader.read(in, 0, in.length);
+            if (n <= 0) return false;
+            pos = 0;
+            limit = n;
+        }
+        return in[pos] == '\n';
+    }
+
+    private void append(char c) {
+        if (recordLength == record.length) {
+            char[] grown = new char[record.length * 2];
+            System.arraycopy(record, 0, grown, 0, recordLength);
+            record = grown;
+        }
+        record[recordLength++] = c;
+    }
+
+    private void endField(int start, int end) {
+        if (fields == fieldStart.length) {
+            int[] s = new int[fields * 2], e = new int[fields * 2];
+            System.arraycopy(fieldStart, 0, s, 0, fields);
+            System.arraycopy(fieldEnd, 0, e, 0, fields);
+            fieldStart = s;
+            fieldEnd = e;
+        }
+        fieldStart[fields] = start;
+        fieldEnd[fields] = Math.max(start, end);
+        fields++;
+    }
+
+    public int fieldCount() {
+        return fields;
+    }
+
+    private void checkField(int i) {
+        if (i < 0 || i >= fields)
+            throw new IllegalArgumentException("Missing field " + i + " (record has " + fields + ")");
+    }
+
+    public String getString(int i) {
+        checkField(i);
+        return new String(record, fieldStart[i], fieldEnd[i] - fieldStart[i]);
+    }
+
+    public int getInt(int i) {
+        checkField(i);
+        return parseInt(record, fieldStart[i], fieldEnd[i]);
+    }
+
+    public double getDouble(int i) {
+        checkField(i);
+        return parseDouble(record, fieldStart[i], fieldEnd[i]);
+    }
+
+    // Parses a list of ints separated by sep (e.g. "101;102") from field i into out.
+    public void getInts(int i, char sep, IntList out) {
+        checkField(i);
+        int from = fieldStart[i], end = fieldEnd[i];
+        while (from < end) {
+            int to = from;
+            while (to < end && record[to] != sep) to++;
+
+            int a = from, b = to;
+            while (a < b && record[a] == ' ') a++;
+            while (b > a && record[b - 1] == ' ') b--;
+            if (a < b)
+                out.add(parseInt(record, a, b));
+            from = to + 1;
+        }
+    }
+
+    static int parseInt(char[] s, int from, int to) {
+        if (from >= to)
+            throw new NumberFormatException("Empty number");
+
+        boolean negative = false;
+        int i = from;
+        if (s[i] == '-' || s[i] == '+') {
+            negative = s[i] == '-';
+            i++;
+            if (i == to) throw new NumberFormatException(new String(s, from, to - from));
+        }
+
+        long v = 0;
+        for (; i < to; i++) {
+            int d = s[i] - '0';
+            if (d < 0 || d > 9)
+                throw new NumberFormatException(new String(s, from, to - from));
+            v = v * 10 + d;
+            if (v > 2147483648L)
+                throw new NumberFormatException(new String(s, from, to - from));
+        }
+        if (negative) v = -v;
+        if (v > Integer.MAX_VALUE)
+            throw new NumberFormatException(new String(s, from, to - from));
+        return (int) v;
+    }
+
+    // Plain decimals ("-12.50") with up to 15 significant digits are parsed exactly from the
+    // buffer (mantissa and power of ten are both exact doubles, so one division rounds correctly).
+    // Anything else (exponents, very long mantissas, NaN, ...) falls back to Double.parseDouble.
+    static double parseDouble(char[] s, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (s[i] == '-' || s[i] == '+')) {
+            negative = s[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean seenDot = false, seenDigit = false, ok = true;
+        for (; i < to && ok; i++) {
+            char c = s[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || c != '0') digits++;
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenDot) scale++;
+                if (digits > 15) ok = false;
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                ok = false;
+            }
+        }
+
+        if (ok && seenDigit && scale < POW10.length) {
+            double v = mantissa / POW10[scale];
+            return negative ? -v : v;
+        }
+        return Double.parseDouble(new String(s, from, to - from));
+    }
+}
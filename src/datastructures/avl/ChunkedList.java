@@ -0,0 +1,223 @@
+package datastructures.avl;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Unrolled linked list: elements live in fixed-size array chunks, so a scan touches one chunk
+// object per CHUNK_SIZE elements instead of one Node per element. Keeps the cursor API of
+// LinkedList (findFirst/findNext/retrieve/last/insert/remove ...).
+public class ChunkedList<T> implements Iterable<T> {
+
+    private static final int CHUNK_SIZE = 64;
+
+    private static final class Chunk<T> {
+        final Object[] items = new Object[CHUNK_SIZE];
+        int count;
+        Chunk<T> next, prev;
+
+        @SuppressWarnings("unchecked")
+        T get(int i) {
+            return (T) items[i];
+        }
+    }
+
+    private Chunk<T> head, tail;
+    private Chunk<T> current;   // cursor = (current, index)
+    private int index;
+    private int size;
+    private int modCount;
+
+    public ChunkedList() {
+        head = tail = current = null;
+        index = 0;
+        size = 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public boolean full() {
+        return false;
+    }
+
+    public boolean last() {
+        return index == current.count - 1 && current.next == null;
+    }
+
+    public void findFirst() {
+        current = head;
+        index = 0;
+    }
+
+    public void findNext() {
+        if (index + 1 < current.count) {
+            index++;
+        } else {
+            current = current.next;
+            index = 0;
+        }
+    }
+
+    public T retrieve() {
+        return current.get(index);
+    }
+
+    public void update(T val) {
+        current.items[index] = val;
+    }
+
+    // Inserts after the cursor and moves the cursor to the new element.
+    public void insert(T val) {
+        if (empty()) {
+            head = tail = current = new Chunk<>();
+            current.items[0] = val;
+            current.count = 1;
+            index = 0;
+        } else {
+            insertAt(current, index + 1, val);
+        }
+        size++;
+        modCount++;
+    }
+
+    // Appends at the tail regardless of the cursor and moves the cursor to it.
+    public void append(T val) {
+        if (empty()) {
+            insert(val);
+            return;
+        }
+        current = tail;
+        index = tail.count - 1;
+        insert(val);
+    }
+
+    // Places val at position pos of chunk c (0 <= pos <= c.count), splitting c if it is full,
+    // and points the cursor at it.
+    private void insertAt(Chunk<T> c, int pos, T val) {
+        if (c.count == CHUNK_SIZE) {
+            // Appending at the very end of a full chunk starts a fresh one (keeps bulk appends dense);
+            // otherwise split the chunk in half.
+            Chunk<T> fresh = new Chunk<>();
+            fresh.prev = c;
+            fresh.next = c.next;
+            if (c.next != null)
+                c.next.prev = fresh;
+            else
+                tail = fresh;
+            c.next = fresh;
+
+            if (pos == CHUNK_SIZE) {
+                c = fresh;
+                pos = 0;
+            } else {
+                int half = CHUNK_SIZE / 2;
+                System.arraycopy(c.items, half, fresh.items, 0, CHUNK_SIZE - half);
+                for (int i = half; i < CHUNK_SIZE; i++)
+                    c.items[i] = null;
+                fresh.count = CHUNK_SIZE - half;
+                c.count = half;
+                if (pos > half) {
+                    c = fresh;
+                    pos -= half;
+                }
+            }
+        }
+
+        System.arraycopy(c.items, pos, c.items, pos + 1, c.count - pos);
+        c.items[pos] = val;
+        c.count++;
+        current = c;
+        index = pos;
+    }
+
+    // Removes the element at the cursor; the cursor moves to the next element, or to the first
+    // element if the removed one was the last (same rule as LinkedList.remove()). A chunk that
+    // drops below half full is merged with a neighbour that has room for its elements, so removals
+    // cannot leave the list spread over mostly empty chunks.
+    public void remove() {
+        if (current == null)
+            return;
+
+        Chunk<T> c = current;
+        int i = index;
+        System.arraycopy(c.items, i + 1, c.items, i, c.count - i - 1);
+        c.items[--c.count] = null;
+        size--;
+        modCount++;
+
+        if (c.count < CHUNK_SIZE / 2) {
+            if (c.next != null && c.count + c.next.count <= CHUNK_SIZE) {
+                absorbNext(c);
+            } else if (c.prev != null && c.prev.count + c.count <= CHUNK_SIZE) {
+                c = c.prev;
+                i += c.count;
+                absorbNext(c);
+            }
+        }
+
+        if (c.count == 0) {
+            // the only chunk, now empty
+            unlink(c);
+            current = head;
+            index = 0;
+        } else if (i < c.count) {
+            current = c;
+            index = i;
+        } else {
+            current = (c.next != null) ? c.next : head;
+            index = 0;
+        }
+    }
+
+    // Moves the elements of c.next to the end of c and unlinks c.next; the caller checked they fit.
+    private void absorbNext(Chunk<T> c) {
+        Chunk<T> n = c.next;
+        System.arraycopy(n.items, 0, c.items, c.count, n.count);
+        c.count += n.count;
+        unlink(n);
+    }
+
+    private void unlink(Chunk<T> c) {
+        if (c.prev != null)
+            c.prev.next = c.next;
+        else
+            head = c.next;
+
+        if (c.next != null)
+            c.next.prev = c.prev;
+        else
+            tail = c.prev;
+    }
+
+    // Fail-fast iterator over all elements; does not move the cursor.
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private Chunk<T> chunk = head;
+            private int i = 0;
+            private final int expectedModCount = modCount;
+
+            public boolean hasNext() {
+                return chunk != null && i < chunk.count;
+            }
+
+            public T next() {
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                T val = chunk.get(i++);
+                if (i == chunk.count) {
+                    chunk = chunk.next;
+                    i = 0;
+                }
+                return val;
+            }
+        };
+    }
+}
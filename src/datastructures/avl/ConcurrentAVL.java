@@ -0,0 +1,327 @@
+package datastructures.avl;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ToIntFunction;
+
+// Thread-safe wrapper around AVL. Writers take the exclusive lock; point lookups first try an
+// optimistic (lock-free) descent and only fall back to a shared read lock if a writer interfered.
+// Range reads and traversals always run under the read lock and never touch the "current" cursor.
+// Cursors stream without copying and stay usable while writers continue (see Cursor).
+// Stress-tested by test/.../ConcurrentAVLStress.
+public class ConcurrentAVL<T> implements OrderedIndex<T> {
+
+    // An AVL tree over int keys is never deeper than this; a longer optimistic walk means
+    // we raced with a rotation and must retry under the read lock.
+    private static final int MAX_DEPTH = 64;
+
+    final AVL<T> tree;
+    private final StampedLock lock;
+
+    public ConcurrentAVL() {
+        this(new AVL<>());
+    }
+
+    // Takes ownership of an existing tree (e.g. one built with AVL.buildFromSorted).
+    public ConcurrentAVL(AVL<T> tree) {
+        this.tree = tree;
+        lock = new StampedLock();
+    }
+
+    // Bulk-loads like AVL.buildFromSorted.
+    public static <T> ConcurrentAVL<T> buildFromSorted(LinkedList<T> list, ToIntFunction<T> keyOf) {
+        return new ConcurrentAVL<>(AVL.buildFromSorted(list, keyOf));
+    }
+
+    public T search(int key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            T result = null;
+            boolean done = false;
+            AVLNode<T> p = tree.root;
+            for (int steps = 0; steps < MAX_DEPTH; steps++) {
+                if (p == null) {
+                    done = true;
+                    break;
+                }
+                int k = p.key;
+                if (k == key) {
+                    result = p.data;
+                    done = true;
+                    break;
+                }
+                p = (key < k) ? p.left : p.right;
+            }
+            if (done && lock.validate(stamp))
+                return result;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return tree.search(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean contains(int key) {
+        return search(key) != null;
+    }
+
+    public int getSize() {
+        long stamp = lock.tryOptimisticRead();
+        AVLNode<T> r = tree.root;
+        int size = (r == null) ? 0 : r.size;
+        if (stamp != 0L && lock.validate(stamp))
+            return size;
+
+        stamp = lock.readLock();
+        try {
+            return tree.getSize();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean empty() {
+        return getSize() == 0;
+    }
+
+    public boolean insert(int key, T value) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.insert(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean delete(int key) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.delete(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Replaces the value stored under key; returns false if the key is absent.
+    public boolean replace(int key, T value) {
+        long stamp = lock.writeLock();
+        try {
+            if (!tree.findkey(key))
+                return false;
+            tree.current.data = value;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public T findMin() {
+        long stamp = lock.readLock();
+        try {
+            return tree.findMin();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public T findMax() {
+        long stamp = lock.readLock();
+        try {
+            return tree.findMax();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int rank(int key) {
+        long stamp = lock.readLock();
+        try {
+            return tree.rank(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public T select(int i) {
+        long stamp = lock.readLock();
+        try {
+            return tree.select(i);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int countInRange(int minKey, int maxKey) {
+        long stamp = lock.readLock();
+        try {
+            return tree.countInRange(minKey, maxKey);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Returns a consistent copy of the values with keys in [minKey, maxKey] (inclusive).
+    public LinkedList<T> rangeQuery(int minKey, int maxKey) {
+        long stamp = lock.readLock();
+        try {
+            return tree.rangeQuery(minKey, maxKey);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public LinkedList<T> page(int offset, int count) {
+        long stamp = lock.readLock();
+        try {
+            return tree.page(offset, count);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public LinkedList<T> inOrderTraversal() {
+        long stamp = lock.readLock();
+        try {
+            return tree.inOrderTraversal();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public ChunkedList<T> inOrderChunked() {
+        long stamp = lock.readLock();
+        try {
+            return tree.inOrderChunked();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Cursor<T> cursor() {
+        return rangeCursor(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public Cursor<T> rangeCursor(int minKey, int maxKey) {
+        return new Cursor<>(this, minKey, maxKey);
+    }
+
+    // Checks the tree's invariants (see AVL.checkInvariants) under the read lock.
+    void checkInvariants() {
+        long stamp = lock.readLock();
+        try {
+            tree.checkInvariants();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Weakly consistent cursor over [minKey, maxKey]; allocates nothing per step. Each step is
+    // taken without the lock and validated against the stamp of the previous one; if a writer got
+    // in between, the cursor re-seeks past the last key it returned under the read lock. Entries
+    // present for the whole scan are returned exactly once, in ascending order; entries inserted
+    // or deleted meanwhile may or may not be.
+    public static class Cursor<T> implements OrderedIndex.Cursor<T> {
+        private final ConcurrentAVL<T> owner;
+        private final int maxKey;
+        private long stamp;         // optimistic stamp under which node was reached
+        private AVLNode<T> node;    // only trusted while stamp validates
+        private boolean valid;
+        private int key;
+        private T value;
+
+        private Cursor(ConcurrentAVL<T> owner, int minKey, int maxKey) {
+            this.owner = owner;
+            this.maxKey = maxKey;
+            seek(minKey);
+        }
+
+        public boolean valid() {
+            return valid;
+        }
+
+        public int key() {
+            return key;
+        }
+
+        public T retrieve() {
+            return value;
+        }
+
+        public void findNext() {
+            if (!valid) return;
+
+            long s = stamp;
+            AVLNode<T> next = successor(node);
+            if (next != node) {
+                int k = 0;
+                T v = null;
+                if (next != null) {
+                    k = next.key;
+                    v = next.data;
+                }
+                if (owner.lock.validate(s)) {
+                    set(next, k, v);
+                    return;
+                }
+            }
+
+            if (key == Integer.MAX_VALUE)
+                valid = false;
+            else
+                seek(key + 1);
+        }
+
+        // Moves to the first key >= from under the read lock, then keeps only an optimistic stamp.
+        private void seek(int from) {
+            long r = owner.lock.readLock();
+            try {
+                AVLNode<T> n = owner.tree.ceilingNode(from);
+                if (n == null)
+                    set(null, 0, null);
+                else
+                    set(n, n.key, n.data);
+            } finally {
+                stamp = owner.lock.tryConvertToOptimisticRead(r);
+            }
+        }
+
+        private void set(AVLNode<T> n, int k, T v) {
+            node = n;
+            key = k;
+            value = v;
+            valid = (n != null && k <= maxKey);
+        }
+
+        // AVLCursor.successor with a bound on the number of steps, since the links may be
+        // changing underneath; returns p itself when it gave up.
+        private static <T> AVLNode<T> successor(AVLNode<T> p) {
+            int steps = 0;
+            AVLNode<T> q = p.right;
+            if (q != null) {
+                for (AVLNode<T> l = q.left; l != null; l = l.left) {
+                    if (++steps > MAX_DEPTH) return p;
+                    q = l;
+                }
+                return q;
+            }
+            AVLNode<T> child = p, parent = p.parent;
+            while (parent != null && parent.right == child) {
+                if (++steps > MAX_DEPTH) return p;
+                child = parent;
+                parent = parent.parent;
+            }
+            return parent;
+        }
+    }
+
+    public String toString() {
+        long stamp = lock.readLock();
+        try {
+            return "Concurrent" + tree.toString();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package datastructures.avl;
 
+import java.util.Iterator;
+import java.util.concurrent.locks.StampedLock;
+
 public class Customer {
 
     private int customerId;
@@ -7,8 +10,20 @@ public class Customer {
     private String email;
     private LinkedList<Order> orders;
 
-    // Shared AVL tree used as an in-memory index for fast customer lookup by ID
-    private static AVL<Customer> customers = new AVL<>();
+    // Shared in-memory index for fast customer lookup by ID; see setIndexKind. The default
+    // ConcurrentAVL lets findCustomer and full scans run from any thread without a lock
+    private static OrderedIndex.Kind indexKind = OrderedIndex.Kind.CONCURRENT_AVL_TREE;
+    private static OrderedIndex<Customer> customers = indexKind.create();
+
+    // Secondary index on name (case-insensitive), ties ordered by customerId
+    private static NameIndex<Customer> nameIndex = new NameIndex<>();
+
+    // Guards nameIndex: addCustomer, setName and the bulk loaders hold the write lock (which also
+    // serializes writers of customers), the name-ordered queries hold the read lock
+    private static final StampedLock lock = new StampedLock();
+
+    // Entries read under one read lock by the customersByName cursor
+    private static final int NAME_PAGE = 256;
 
     public Customer(int customerId, String name, String email) {
         this.customerId = customerId;
@@ -33,7 +48,7 @@ public class Customer {
         return orders;
     }
 
-    // Returns customers ordered by customerId (AVL in-order traversal)
+    // Returns customers ordered by customerId (in-order traversal of the index)
     public static LinkedList<Customer> getCustomers() {
         return customers.inOrderTraversal();
     }
@@ -43,7 +58,15 @@ public class Customer {
     }
 
     public void setName(String name) {
-        this.name = name;
+        long stamp = lock.writeLock();
+        try {
+            if (customers.search(customerId) == this) {
+                nameIndex.rename(this.name, name, customerId, this);
+            }
+            this.name = name;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     public void setEmail(String email) {
@@ -54,26 +77,53 @@ public class Customer {
         this.orders = orders;
     }
 
-    // Rebuilds the AVL index from an existing list (used after loading persisted data)
-    public static void setCustomers(LinkedList<Customer> list) {
-        customers = new AVL<>();
-
-        if (list == null || list.empty()) {
-            return;
+    // Switches the customerId index to another structure, moving the current customers into it.
+    // Only CONCURRENT_AVL_TREE and PERSISTENT_AVL_TREE can be searched while a writer runs
+    public static void setIndexKind(OrderedIndex.Kind kind) {
+        long stamp = lock.writeLock();
+        try {
+            customers = kind.buildFromSorted(customers.inOrderTraversal(), Customer::getCustomerId);
+            indexKind = kind;
+        } finally {
+            lock.unlockWrite(stamp);
         }
+    }
 
-        list.findFirst();
-        while (true) {
-            Customer c = list.retrieve();
-            customers.insert(c.getCustomerId(), c);
+    public static OrderedIndex.Kind getIndexKind() {
+        return indexKind;
+    }
 
-            if (list.last()) break;
-            list.findNext();
+    // Rebuilds the customerId index from an existing list (used after loading persisted data)
+    public static void setCustomers(LinkedList<Customer> list) {
+        long stamp = lock.writeLock();
+        try {
+            // Bulk-load: linear when the list is already sorted by customerId
+            customers = indexKind.buildFromSorted(list, Customer::getCustomerId);
+
+            nameIndex = new NameIndex<>();
+            for (OrderedIndex.Cursor<Customer> c = customers.cursor(); c.valid(); c.findNext()) {
+                Customer cust = c.retrieve();
+                nameIndex.insert(cust.name, cust.customerId, cust);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
     public void addOrder(Order order) {
-        this.orders.insert(order);
+        this.orders.append(order);
+    }
+
+    // Removes the order from this customer's history in one pass over the list
+    public boolean removeOrder(int orderId) {
+        Iterator<Order> it = orders.iterator();
+        while (it.hasNext()) {
+            if (it.next().getOrderId() == orderId) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
     }
 
     // Creates a review associated with this customer and delegates storage to Review
@@ -104,61 +154,149 @@ public class Customer {
         }
     }
 
-    // Adds customer only if the ID does not already exist in the AVL tree
+    // Adds customer only if the ID does not already exist in the index
     public static boolean addCustomer(Customer customer) {
-
-        Customer existing = customers.search(customer.getCustomerId());
-        if (existing != null) {
+        if (!addCustomer(customer, true)) {
             System.out.println("Customer already exists!");
             return false;
         }
+        WriteAheadLog.awaitCommit();
 
-        customers.insert(customer.getCustomerId(), customer);
         System.out.println("Customer registered successfully!");
         return true;
     }
 
+    // Applies addCustomer under the write lock and logs it only when log is set; replay passes false
+    static boolean addCustomer(Customer customer, boolean log) {
+        long stamp = lock.writeLock();
+        try {
+            if (!index(customer)) {
+                return false;
+            }
+            if (log) WriteAheadLog.logAddCustomer(customer);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Adds the customer to both indexes; false if the customerId is already taken. The caller
+    // holds the write lock
+    static boolean index(Customer customer) {
+        if (!customers.insert(customer.getCustomerId(), customer)) {
+            return false;
+        }
+        nameIndex.insert(customer.name, customer.customerId, customer);
+        return true;
+    }
+
+    // Streams customers from a CSV file straight into fresh indexes, without an intermediate list
+    // Returns the number of records read; a repeated customerId keeps its first record
+    public static int loadCustomers(String file) {
+        return loadCustomers(file, null);
+    }
+
+    // Same, with the file parsed in parallel chunks by loader (sequentially when it is null)
+    public static int loadCustomers(String file, ParallelCSVLoader loader) {
+        long stamp = lock.writeLock();
+        try {
+            customers = indexKind.create();
+            nameIndex = new NameIndex<>();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        SimpleCSVReader.RecordSink<Customer> sink = batch -> {
+            long batchStamp = lock.writeLock();
+            try {
+                for (Customer c : batch) {
+                    index(c);
+                }
+            } finally {
+                lock.unlockWrite(batchStamp);
+            }
+        };
+        return (loader != null) ? loader.streamCustomers(file, sink)
+                : SimpleCSVReader.streamCustomers(file, sink, SimpleCSVReader.DEFAULT_BATCH);
+    }
+
     public static Customer findCustomer(int customerId) {
         return customers.search(customerId);
     }
 
-    // Returns customers sorted alphabetically by name (case-insensitive)
+    // Returns customers sorted alphabetically by name (case-insensitive), ties by customerId
     public static LinkedList<Customer> getAllCustomersSortedByName() {
-        LinkedList<Customer> result = new LinkedList<>();
+        long stamp = lock.readLock();
+        try {
+            return nameIndex.inOrderTraversal();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Streams customers in name order without building a full list
+    public static NameCursor customersByName() {
+        return new NameCursor();
+    }
 
-        if (customers == null || customers.empty()) {
-            return result;
+    // Paging by name: up to count customers that sort after (name, customerId) of the previous page's
+    // last entry. Pass name == null for the first page.
+    public static LinkedList<Customer> getCustomersByNameAfter(String name, int customerId, int count) {
+        long stamp = lock.readLock();
+        try {
+            return nameIndex.pageAfter(name, customerId, count);
+        } finally {
+            lock.unlockRead(stamp);
         }
+    }
 
-        LinkedList<Customer> all = customers.inOrderTraversal();
-        int size = all.getSize();
-        if (size == 0) return result;
+    // Name-order cursor that reads NAME_PAGE customers at a time under the read lock and continues
+    // after the last (name, customerId) it returned, so writers are only held off per page. Like the
+    // ConcurrentAVL cursors it is weakly consistent: changes made during the walk may be missed
+    public static class NameCursor {
+        private LinkedList<Customer> page;
+        private String lastName;
+        private int lastId;
+        private boolean more = true;    // the last page was full, so there may be another
+
+        private NameCursor() {
+            fetch();
+        }
 
-        Customer[] arr = new Customer[size];
-        all.findFirst();
-        for (int i = 0; i < size; i++) {
-            arr[i] = all.retrieve();
-            if (!all.last()) {
-                all.findNext();
-            }
+        public boolean valid() {
+            return !page.empty();
         }
 
-        // Manual sort kept explicit for assignment constraints
-        for (int i = 0; i < size - 1; i++) {
-            for (int j = 0; j < size - i - 1; j++) {
-                if (arr[j].getName().compareToIgnoreCase(arr[j + 1].getName()) > 0) {
-                    Customer temp = arr[j];
-                    arr[j] = arr[j + 1];
-                    arr[j + 1] = temp;
-                }
-            }
+        public Customer retrieve() {
+            return page.retrieve();
         }
 
-        for (int i = 0; i < size; i++) {
-            result.insert(arr[i]);
+        public void findNext() {
+            if (!page.last()) {
+                page.findNext();
+                return;
+            }
+            if (more) {
+                fetch();
+            } else {
+                page = new LinkedList<>();
+            }
         }
 
-        return result;
+        // The resume position is read under the same lock, before setName can change it.
+        private void fetch() {
+            long stamp = lock.readLock();
+            try {
+                page = nameIndex.pageAfter(lastName, lastId, NAME_PAGE);
+                more = page.getSize() == NAME_PAGE;
+                if (page.empty()) return;
+                page.findLast();
+                lastName = page.retrieve().name;
+                lastId = page.retrieve().customerId;
+                page.findFirst();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
     }
 
     public String toString() {
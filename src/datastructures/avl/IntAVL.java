@@ -0,0 +1,172 @@
+package datastructures.avl;
+
+// AVL map from int keys to int values with all node fields stored in parallel int arrays.
+// A node is just an index into those arrays, so there are no per-node objects or boxed values.
+// Used as a compact int set (values ignored) or int-to-int map; entries cannot be removed.
+public class IntAVL {
+
+    private static final int NIL = -1;
+
+    private int[] keys, values, left, right, height;
+    private int root;
+    private int size;
+
+    public IntAVL() {
+        this(16);
+    }
+
+    public IntAVL(int capacity) {
+        capacity = Math.max(capacity, 1);
+        keys = new int[capacity];
+        values = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        height = new int[capacity];
+        root = NIL;
+        size = 0;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean contains(int key) {
+        return findNode(key) != NIL;
+    }
+
+    // Returns the value stored for key, or defaultValue if the key is absent.
+    public int get(int key, int defaultValue) {
+        int n = findNode(key);
+        return (n == NIL) ? defaultValue : values[n];
+    }
+
+    // Adds key to the set; returns false if it was already present.
+    public boolean insert(int key) {
+        return insert(key, 0);
+    }
+
+    // Adds (key, value); returns false and leaves the old value in place if key already exists.
+    public boolean insert(int key, int value) {
+        int before = size;
+        root = insertRecursive(root, key, value, false);
+        return size != before;
+    }
+
+    // Adds or overwrites the value for key.
+    public void put(int key, int value) {
+        root = insertRecursive(root, key, value, true);
+    }
+
+    // Returns all keys in ascending order.
+    public IntList getKeysSorted() {
+        IntList result = new IntList(size);
+        keysRecursive(root, result);
+        return result;
+    }
+
+    private void keysRecursive(int n, IntList result) {
+        if (n == NIL) return;
+        keysRecursive(left[n], result);
+        result.add(keys[n]);
+        keysRecursive(right[n], result);
+    }
+
+    private int findNode(int key) {
+        int n = root;
+        while (n != NIL) {
+            if (key == keys[n]) return n;
+            n = (key < keys[n]) ? left[n] : right[n];
+        }
+        return NIL;
+    }
+
+    private int newNode(int key, int value) {
+        if (size == keys.length) grow();
+        int n = size++;
+        keys[n] = key;
+        values[n] = value;
+        left[n] = right[n] = NIL;
+        height[n] = 1;
+        return n;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = copyOf(keys, capacity);
+        values = copyOf(values, capacity);
+        left = copyOf(left, capacity);
+        right = copyOf(right, capacity);
+        height = copyOf(height, capacity);
+    }
+
+    private static int[] copyOf(int[] a, int capacity) {
+        int[] b = new int[capacity];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    private int getHeight(int n) {
+        return (n == NIL) ? 0 : height[n];
+    }
+
+    private void updateHeight(int n) {
+        height[n] = 1 + Math.max(getHeight(left[n]), getHeight(right[n]));
+    }
+
+    private int rightRotate(int y) {
+        int x = left[y];
+        left[y] = right[x];
+        right[x] = y;
+        updateHeight(y);
+        updateHeight(x);
+        return x;
+    }
+
+    private int leftRotate(int x) {
+        int y = right[x];
+        right[x] = left[y];
+        left[y] = x;
+        updateHeight(x);
+        updateHeight(y);
+        return y;
+    }
+
+    private int insertRecursive(int n, int key, int value, boolean overwrite) {
+        if (n == NIL) {
+            return newNode(key, value);
+        }
+
+        // The child is computed before the store: a nested insert may grow (replace) the arrays.
+        if (key < keys[n]) {
+            int child = insertRecursive(left[n], key, value, overwrite);
+            left[n] = child;
+        } else if (key > keys[n]) {
+            int child = insertRecursive(right[n], key, value, overwrite);
+            right[n] = child;
+        } else {
+            if (overwrite) values[n] = value;
+            return n;
+        }
+
+        updateHeight(n);
+        int balance = getHeight(left[n]) - getHeight(right[n]);
+
+        if (balance > 1) {
+            if (key > keys[left[n]])
+                left[n] = leftRotate(left[n]);
+            return rightRotate(n);
+        }
+
+        if (balance < -1) {
+            if (key < keys[right[n]])
+                right[n] = rightRotate(right[n]);
+            return leftRotate(n);
+        }
+
+        return n;
+    }
+}
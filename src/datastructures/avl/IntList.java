@@ -0,0 +1,91 @@
+package datastructures.avl;
+
+// Growable list of primitive ints backed by a single array (no boxing, no node per element).
+public class IntList {
+
+    private int[] data;
+    private int size;
+
+    public IntList() {
+        this(8);
+    }
+
+    public IntList(int capacity) {
+        data = new int[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        checkIndex(index);
+        return data[index];
+    }
+
+    public void set(int index, int value) {
+        checkIndex(index);
+        data[index] = value;
+    }
+
+    public void add(int value) {
+        if (size == data.length) {
+            int[] grown = new int[data.length * 2];
+            System.arraycopy(data, 0, grown, 0, size);
+            data = grown;
+        }
+        data[size++] = value;
+    }
+
+    // Removes the element at index, shifting the tail left.
+    public void removeAt(int index) {
+        checkIndex(index);
+        System.arraycopy(data, index + 1, data, index, size - index - 1);
+        size--;
+    }
+
+    public boolean contains(int value) {
+        for (int i = 0; i < size; i++) {
+            if (data[i] == value) return true;
+        }
+        return false;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Shrinks the backing array to the exact size (useful once a list is fully loaded).
+    public void trimToSize() {
+        if (data.length > size) {
+            int[] trimmed = new int[Math.max(size, 1)];
+            System.arraycopy(data, 0, trimmed, 0, size);
+            data = trimmed;
+        }
+    }
+
+    public int[] toArray() {
+        int[] copy = new int[size];
+        System.arraycopy(data, 0, copy, 0, size);
+        return copy;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(data[i]);
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,938 @@
+package datastructures.avl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Log-structured store of (key, id) -> value entries for data that does not fit on the heap.
+//
+// Writes go to an in-memory memtable (a SecondaryIndex, i.e. AVL buckets of AVLs). When it holds
+// memtableLimit entries it is frozen, replaced by an empty one and written out as an immutable
+// sorted run file without holding the tree lock, so reads and other writes go on meanwhile. Once
+// compactionTrigger runs exist a background thread merges them into one. Lookups and range scans
+// merge the memtable with the runs, newest first; a deleted entry is kept as a tombstone until a
+// compaction that reaches the oldest run drops it.
+//
+// Run file layout (big-endian):
+//   entries ascending by (key, id): int key, int id, int len (-1 = tombstone), byte[len] value
+//   sparse index: int n, then every INDEX_INTERVAL-th entry as int key, int id, long offset
+//   Bloom filter: int words, int hashes, long[words] bits
+//   footer: long indexOffset, long bloomOffset, int entryCount, int MAGIC
+// Run files are named run-<lo>-<hi>.sst after the flush sequence numbers they cover, so a restart
+// after an interrupted compaction can tell merged runs from the ones they replaced.
+//
+// The memtable is not persisted by the tree itself; pair it with a WriteAheadLog or call flush().
+public class LSMTree<T> implements AutoCloseable {
+
+    // Converts values to and from the bytes stored in run files.
+    public interface Codec<T> {
+        byte[] encode(T value);
+
+        // Decodes one value; in holds exactly the bytes written by encode.
+        T decode(ByteBuffer in);
+    }
+
+    static final int MAGIC = 0x4C534D31;   // "LSM1"
+    private static final int INDEX_INTERVAL = 32;
+    private static final int FOOTER = 24;
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final Path dir;
+    private final Codec<T> codec;
+    private final int memtableLimit;
+    private final int compactionTrigger;
+
+    // Guarded by this. A null value in the memtable is a tombstone.
+    private SecondaryIndex<T> memtable = new SecondaryIndex<>();
+    private SecondaryIndex<T> flushing;  // frozen memtable being written out, or null
+    private long flushingSeq;
+    private Run[] runs = new Run[0];    // newest first
+    private int liveCount;              // live entries, kept up to date by write()
+    private long nextSeq;
+    private Thread compactor;
+    private IOException compactionFailure;
+    private boolean closed;
+
+    private LSMTree(Path dir, Codec<T> codec, int memtableLimit, int compactionTrigger) {
+        this.dir = dir;
+        this.codec = codec;
+        this.memtableLimit = Math.max(1, memtableLimit);
+        this.compactionTrigger = Math.max(2, compactionTrigger);
+    }
+
+    // Opens the store in dir (created if missing) with the runs a previous instance left there.
+    public static <T> LSMTree<T> open(String dir, Codec<T> codec, int memtableLimit, int compactionTrigger)
+            throws IOException {
+        Path path = Paths.get(dir);
+        Files.createDirectories(path);
+        LSMTree<T> tree = new LSMTree<>(path, codec, memtableLimit, compactionTrigger);
+
+        // Newest (highest hi) first; a run inside an already accepted range was replaced by a
+        // compaction that finished renaming but not deleting.
+        LinkedList<Run> found = new LinkedList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.sst*")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                if (!name.endsWith(".sst")) {
+                    Files.delete(f);    // unfinished flush or compaction
+                    continue;
+                }
+                String[] seq = name.substring(4, name.length() - 4).split("-");
+                found.append(new Run(f, Long.parseLong(seq[0]), Long.parseLong(seq[1]), false));
+            }
+        }
+
+        Run[] all = new Run[found.getSize()];
+        int n = 0;
+        for (Run r : found) {
+            int i = n++;
+            while (i > 0 && all[i - 1].hi < r.hi) {
+                all[i] = all[i - 1];
+                i--;
+            }
+            all[i] = r;
+        }
+
+        LinkedList<Run> live = new LinkedList<>();
+        long covered = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            if (all[i].hi >= covered) {
+                Files.delete(all[i].path);
+                continue;
+            }
+            all[i].load();
+            live.append(all[i]);
+            covered = all[i].lo;
+            tree.nextSeq = Math.max(tree.nextSeq, all[i].hi + 1);
+        }
+        tree.runs = toArray(live);
+        tree.liveCount = tree.count(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        return tree;
+    }
+
+    // Adds or replaces the value of (key, id).
+    public void put(int key, int id, T value) {
+        if (value == null)
+            throw new IllegalArgumentException("Use delete to remove an entry");
+        if (write(key, id, value))
+            flushUnchecked();
+    }
+
+    public void delete(int key, int id) {
+        if (write(key, id, null))
+            flushUnchecked();
+    }
+
+    // Applies a write; true when it filled the memtable and froze it, in which case the caller
+    // writes it out with flushFrozen() after leaving the monitor.
+    private synchronized boolean write(int key, int id, T value) {
+        if (closed)
+            throw new IllegalStateException("Store is closed");
+        if (compactionFailure != null)
+            throw new UncheckedIOException(compactionFailure);
+        boolean wasLive;
+        if (memtable.contains(key, id)) {
+            wasLive = memtable.search(key, id) != null;
+            memtable.remove(key, id);
+        }
+        else if (flushing != null && flushing.contains(key, id)) {
+            wasLive = flushing.search(key, id) != null;
+        }
+        else {
+            wasLive = liveInRuns(key, id);
+        }
+        memtable.insert(key, id, value);
+        liveCount += (value != null ? 1 : 0) - (wasLive ? 1 : 0);
+        return memtable.getSize() >= memtableLimit && freeze(memtableLimit);
+    }
+
+    private void flushUnchecked() {
+        try {
+            flushFrozen();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Whether the newest version of (key, id) in the runs is a live value. The Bloom filters keep
+    // this free for new keys. Called while locked, so no run is retired meanwhile.
+    private boolean liveInRuns(int key, int id) {
+        try {
+            for (Run r : runs) {
+                if (!r.mightContain(key, id))
+                    continue;
+                Entry e = r.find(key, id);
+                if (e != null)
+                    return e.value != null;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes the memtable out as a new run (no-op when it is empty), after any flush in progress.
+    public void flush() throws IOException {
+        synchronized (this) {
+            if (compactionFailure != null)
+                throw compactionFailure;
+            if (!freeze(1))
+                return;
+        }
+        flushFrozen();
+    }
+
+    // Makes the memtable the frozen one if it holds at least minSize entries, first waiting for
+    // an earlier frozen memtable to be written, so one flush runs at a time. Called while locked.
+    private boolean freeze(int minSize) {
+        while (flushing != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (memtable.getSize() < minSize)
+            return false;
+        flushing = memtable;
+        flushingSeq = nextSeq++;
+        memtable = new SecondaryIndex<>();
+        return true;
+    }
+
+    // Writes the frozen memtable out as a run, without the tree lock, and puts the run in front.
+    // The frozen memtable is not modified, and reads see it until the run replaces it.
+    private void flushFrozen() throws IOException {
+        SecondaryIndex<T> frozen;
+        long seq;
+        synchronized (this) {
+            frozen = flushing;
+            seq = flushingSeq;
+        }
+
+        Run run;
+        RunWriter w = null;
+        try {
+            w = new RunWriter(dir.resolve(runName(seq, seq)), frozen.getSize());
+            for (SecondaryIndex.Cursor<T> c = frozen.cursor(); c.valid(); c.findNext()) {
+                T v = c.retrieve();
+                w.add(c.key(), c.id(), v == null ? null : codec.encode(v));
+            }
+            run = w.finish(seq, seq);
+        } catch (IOException | RuntimeException e) {
+            if (w != null)
+                w.abort();
+            synchronized (this) {
+                // Keep the entries in memory; newer writes to the same positions win.
+                for (SecondaryIndex.Cursor<T> c = frozen.cursor(); c.valid(); c.findNext()) {
+                    if (!memtable.contains(c.key(), c.id()))
+                        memtable.insert(c.key(), c.id(), c.retrieve());
+                }
+                flushing = null;
+                notifyAll();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            Run[] next = new Run[runs.length + 1];
+            next[0] = run;
+            System.arraycopy(runs, 0, next, 1, runs.length);
+            runs = next;
+            flushing = null;
+            notifyAll();
+            maybeCompact();
+        }
+    }
+
+    // Value of (key, id), or null if it is absent or deleted.
+    public T get(int key, int id) {
+        Run[] snapshot;
+        synchronized (this) {
+            if (memtable.contains(key, id))
+                return memtable.search(key, id);
+            if (flushing != null && flushing.contains(key, id))
+                return flushing.search(key, id);
+            snapshot = acquireRuns();
+        }
+
+        try {
+            for (Run r : snapshot) {
+                if (!r.mightContain(key, id))
+                    continue;
+                Entry e = r.find(key, id);
+                if (e != null)
+                    return e.value == null ? null : codec.decode(ByteBuffer.wrap(e.value));
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            release(snapshot);
+        }
+    }
+
+    // Live values with key in [minKey, maxKey], ascending by (key, id).
+    public LinkedList<T> rangeQuery(int minKey, int maxKey) {
+        LinkedList<T> result = new LinkedList<>();
+        scan(minKey, maxKey, Long.MAX_VALUE, (key, id, value) -> result.append(decode(value)));
+        return result;
+    }
+
+    // Up to count live values starting at position offset of the (key, id) order. The merge stops
+    // after offset + count live entries; only the returned values are decoded.
+    public LinkedList<T> page(int offset, int count) {
+        LinkedList<T> result = new LinkedList<>();
+        if (count <= 0)
+            return result;
+        int[] seen = new int[1];
+        scan(Integer.MIN_VALUE, Integer.MAX_VALUE, (long) Math.max(offset, 0) + count, (key, id, value) -> {
+            if (seen[0]++ >= offset)
+                result.append(decode(value));
+        });
+        return result;
+    }
+
+    // Ids of the live entries with key in [minKey, maxKey], ascending by (key, id).
+    public IntList idsInRange(int minKey, int maxKey) {
+        IntList ids = new IntList();
+        scan(minKey, maxKey, Long.MAX_VALUE, (key, id, value) -> ids.add(id));
+        return ids;
+    }
+
+    // Number of live entries with key in [minKey, maxKey]; values are not decoded. For the whole
+    // key range use getSize(), which does not scan.
+    public int countInRange(int minKey, int maxKey) {
+        if (minKey == Integer.MIN_VALUE && maxKey == Integer.MAX_VALUE)
+            return getSize();
+        return count(minKey, maxKey);
+    }
+
+    // Number of live entries in the store.
+    public synchronized int getSize() {
+        return liveCount;
+    }
+
+    private int count(int minKey, int maxKey) {
+        int[] count = new int[1];
+        scan(minKey, maxKey, Long.MAX_VALUE, (key, id, value) -> count[0]++);
+        return count[0];
+    }
+
+    // Receives the live entries of a scan; value is the encoded value, or the memtable object.
+    interface Visitor {
+        void visit(int key, int id, Object value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(Object value) {
+        return value instanceof byte[] ? codec.decode(ByteBuffer.wrap((byte[]) value)) : (T) value;
+    }
+
+    // Merges the memtable and every run over [minKey, maxKey] and visits the first limit live
+    // entries.
+    void scan(int minKey, int maxKey, long limit, Visitor visitor) {
+        Run[] snapshot;
+        Source[] sources;
+        int mem;
+        synchronized (this) {
+            snapshot = acquireRuns();
+            mem = flushing != null ? 2 : 1;
+            sources = new Source[snapshot.length + mem];
+            sources[0] = new MemSource(memtable, minKey, maxKey);    // copied while locked
+            if (flushing != null)
+                sources[1] = new FrozenSource(flushing.rangeCursor(minKey, maxKey));
+        }
+
+        try {
+            for (int i = 0; i < snapshot.length; i++) {
+                sources[i + mem] = snapshot[i].scan(minKey, maxKey);
+            }
+            merge(sources, limit, visitor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            release(snapshot);
+        }
+    }
+
+    // k-way merge by (key, id); on equal positions the earliest (newest) source wins and the
+    // others are skipped. Tombstones are dropped; the merge stops after limit live entries.
+    private static void merge(Source[] sources, long limit, Visitor out) throws IOException {
+        while (limit > 0) {
+            int best = -1;
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i].valid() && (best < 0 || compare(sources[i], sources[best]) < 0))
+                    best = i;
+            }
+            if (best < 0)
+                return;
+
+            int key = sources[best].key(), id = sources[best].id();
+            Object value = sources[best].value();
+            if (value != null) {
+                out.visit(key, id, value);
+                limit--;
+            }
+            for (Source s : sources) {
+                if (s.valid() && s.key() == key && s.id() == id)
+                    s.next();
+            }
+        }
+    }
+
+    private static int compare(Source a, Source b) {
+        if (a.key() != b.key())
+            return Integer.compare(a.key(), b.key());
+        return Integer.compare(a.id(), b.id());
+    }
+
+    // ---- compaction ----
+
+    // Not retried after a failure: a persistent error (e.g. a full disk) would otherwise restart
+    // the compactor in a loop. Writes and flush() report the failure instead.
+    private void maybeCompact() {
+        if (runs.length < compactionTrigger || compactor != null || closed || compactionFailure != null)
+            return;
+
+        Run[] victims = acquireRuns();
+        compactor = new Thread(() -> compact(victims), "lsm-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    // Merges every run that existed when it started into one. Runs flushed meanwhile stay in front.
+    private void compact(Run[] victims) {
+        Run merged = null;
+        IOException failure = null;
+        RunWriter w = null;
+        try {
+            long expected = 0;
+            for (Run r : victims) {
+                expected += r.entryCount;
+            }
+            long lo = victims[victims.length - 1].lo, hi = victims[0].hi;
+            RunWriter out = w = new RunWriter(dir.resolve(runName(lo, hi)), expected);
+
+            Source[] sources = new Source[victims.length];
+            for (int i = 0; i < victims.length; i++) {
+                sources[i] = victims[i].scan(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            }
+            // The oldest run takes part, so nothing older can be hidden by a tombstone: merge drops
+            // them. Only tombstones and shadowed versions go, so the live count is unchanged.
+            merge(sources, Long.MAX_VALUE, (key, id, value) -> out.addUnchecked(key, id, (byte[]) value));
+            merged = w.finish(lo, hi);
+        } catch (IOException | UncheckedIOException e) {
+            failure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+            if (w != null)
+                w.abort();
+        }
+
+        synchronized (this) {
+            if (merged != null) {
+                int keep = runs.length - victims.length;
+                Run[] next = new Run[keep + 1];
+                System.arraycopy(runs, 0, next, 0, keep);
+                next[keep] = merged;
+                runs = next;
+                for (Run r : victims) {
+                    r.retire();
+                }
+            }
+            else {
+                compactionFailure = failure;
+            }
+            compactor = null;
+            notifyAll();
+            maybeCompact();
+        }
+        release(victims);
+    }
+
+    // Number of run files currently serving reads.
+    public synchronized int getRunCount() {
+        return runs.length;
+    }
+
+    // Flushes the memtable, waits for a running compaction and closes every run.
+    @Override
+    public void close() throws IOException {
+        boolean frozen;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;      // no more writes
+            frozen = freeze(1);
+        }
+        IOException error = null;
+        if (frozen) {
+            try {
+                flushFrozen();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        Run[] last;
+        synchronized (this) {
+            while (compactor != null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            last = runs;
+            runs = new Run[0];
+        }
+        for (Run r : last) {
+            r.release();
+        }
+        if (error != null)
+            throw error;
+        if (compactionFailure != null)
+            throw compactionFailure;
+    }
+
+    // Takes a reference on every current run; the caller must release them. Called while locked.
+    private Run[] acquireRuns() {
+        Run[] snapshot = runs.clone();
+        for (Run r : snapshot) {
+            r.refs.incrementAndGet();
+        }
+        return snapshot;
+    }
+
+    private static void release(Run[] snapshot) {
+        for (Run r : snapshot) {
+            r.release();
+        }
+    }
+
+    private static String runName(long lo, long hi) {
+        return "run-" + lo + "-" + hi + ".sst";
+    }
+
+    private static Run[] toArray(LinkedList<Run> list) {
+        Run[] a = new Run[list.getSize()];
+        int i = 0;
+        for (Run r : list) {
+            a[i++] = r;
+        }
+        return a;
+    }
+
+    private static long hash(int key, int id) {
+        long h = ((long) key << 32) ^ (id & 0xFFFFFFFFL);
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    // ---- run files ----
+
+    private static class Entry {
+        byte[] value;   // null for a tombstone
+    }
+
+    // Immutable sorted run: entries stay on disk, the sparse index and Bloom filter are in memory.
+    private static class Run {
+        final Path path;
+        final long lo, hi;
+        FileChannel ch;
+        int[] indexKey, indexId;
+        long[] indexOffset;
+        long dataEnd;
+        long[] bloom;
+        int hashes;
+        int entryCount;
+
+        // One reference belongs to the tree; scans and lookups take their own.
+        final AtomicInteger refs = new AtomicInteger(1);
+        private volatile boolean retired;
+
+        Run(Path path, long lo, long hi, boolean load) throws IOException {
+            this.path = path;
+            this.lo = lo;
+            this.hi = hi;
+            if (load)
+                load();
+        }
+
+        void load() throws IOException {
+            ch = FileChannel.open(path, StandardOpenOption.READ);
+            long size = ch.size();
+            if (size < FOOTER)
+                throw new IOException("Corrupt run file " + path);
+            ByteBuffer footer = read(size - FOOTER, FOOTER);
+            long indexAt = footer.getLong();
+            long bloomAt = footer.getLong();
+            entryCount = footer.getInt();
+            if (footer.getInt() != MAGIC)
+                throw new IOException("Corrupt run file " + path);
+
+            ByteBuffer index = read(indexAt, (int) (bloomAt - indexAt));
+            int n = index.getInt();
+            indexKey = new int[n];
+            indexId = new int[n];
+            indexOffset = new long[n];
+            for (int i = 0; i < n; i++) {
+                indexKey[i] = index.getInt();
+                indexId[i] = index.getInt();
+                indexOffset[i] = index.getLong();
+            }
+            dataEnd = indexAt;
+
+            ByteBuffer b = read(bloomAt, (int) (size - FOOTER - bloomAt));
+            bloom = new long[b.getInt()];
+            hashes = b.getInt();
+            b.asLongBuffer().get(bloom);
+        }
+
+        private ByteBuffer read(long pos, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(len);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0)
+                    throw new IOException("Corrupt run file " + path);
+            }
+            buf.flip();
+            return buf;
+        }
+
+        boolean mightContain(int key, int id) {
+            long h = hash(key, id);
+            int h1 = (int) h, h2 = (int) (h >>> 32);
+            long bits = (long) bloom.length * 64;
+            for (int i = 0; i < hashes; i++) {
+                long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+                if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        // Index of the last sparse-index entry at or before (key, id), or -1.
+        private int floorBlock(int key, int id) {
+            int lo = 0, hi = indexKey.length - 1, found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (indexKey[mid] < key || (indexKey[mid] == key && indexId[mid] <= id)) {
+                    found = mid;
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        // Reads the one block that can hold (key, id).
+        Entry find(int key, int id) throws IOException {
+            int b = floorBlock(key, id);
+            if (b < 0)
+                return null;
+            long end = b + 1 < indexOffset.length ? indexOffset[b + 1] : dataEnd;
+            ByteBuffer block = read(indexOffset[b], (int) (end - indexOffset[b]));
+            while (block.hasRemaining()) {
+                int k = block.getInt(), i = block.getInt(), len = block.getInt();
+                if (k == key && i == id) {
+                    Entry e = new Entry();
+                    if (len >= 0) {
+                        e.value = new byte[len];
+                        block.get(e.value);
+                    }
+                    return e;
+                }
+                if (k > key || (k == key && i > id))
+                    return null;
+                if (len > 0)
+                    block.position(block.position() + len);
+            }
+            return null;
+        }
+
+        Source scan(int minKey, int maxKey) throws IOException {
+            int b = floorBlock(minKey, Integer.MIN_VALUE);
+            return new RunSource(this, b < 0 ? 0 : indexOffset[b], minKey, maxKey);
+        }
+
+        // Called by the tree, while locked, once the run has been replaced by a compaction.
+        void retire() {
+            retired = true;
+            release();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() != 0)
+                return;
+            try {
+                ch.close();
+                if (retired)
+                    Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.out.println("Error releasing run " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Writes entries (which must arrive in ascending order) to a temporary file and renames it
+    // into place once complete.
+    private static class RunWriter {
+        private final Path path, tmp;
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        private long offset;
+        private int count;
+        private final IntList indexKey = new IntList(), indexId = new IntList();
+        private long[] indexOffset = new long[16];
+        private final long[] bloom;
+
+        RunWriter(Path path, long expectedEntries) throws IOException {
+            this.path = path;
+            this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            long bits = Math.max(64, expectedEntries * BLOOM_BITS_PER_ENTRY);
+            bloom = new long[(int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64)];
+        }
+
+        // Drops the unfinished file after a failure.
+        void abort() {
+            try {
+                ch.close();
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                System.out.println("Error removing " + tmp + ": " + e.getMessage());
+            }
+        }
+
+        void addUnchecked(int key, int id, byte[] value) {
+            try {
+                add(key, id, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void add(int key, int id, byte[] value) throws IOException {
+            if (count % INDEX_INTERVAL == 0) {
+                int n = indexKey.getSize();
+                if (n == indexOffset.length) {
+                    long[] bigger = new long[n * 2];
+                    System.arraycopy(indexOffset, 0, bigger, 0, n);
+                    indexOffset = bigger;
+                }
+                indexKey.add(key);
+                indexId.add(id);
+                indexOffset[n] = offset;
+            }
+
+            long h = hash(key, id);
+            int h1 = (int) h, h2 = (int) (h >>> 32);
+            long bits = (long) bloom.length * 64;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+
+            putInt(key);
+            putInt(id);
+            putInt(value == null ? -1 : value.length);
+            if (value != null)
+                putBytes(value);
+            count++;
+        }
+
+        // Appends the sparse index, Bloom filter and footer, syncs and renames the file into place.
+        Run finish(long lo, long hi) throws IOException {
+            long indexAt = offset;
+            int n = indexKey.getSize();
+            putInt(n);
+            for (int i = 0; i < n; i++) {
+                putInt(indexKey.get(i));
+                putInt(indexId.get(i));
+                putLong(indexOffset[i]);
+            }
+            long bloomAt = offset;
+            putInt(bloom.length);
+            putInt(BLOOM_HASHES);
+            for (long word : bloom) {
+                putLong(word);
+            }
+            putLong(indexAt);
+            putLong(bloomAt);
+            putInt(count);
+            putInt(MAGIC);
+            drain();
+            ch.force(true);
+            ch.close();
+
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            return new Run(path, lo, hi, true);
+        }
+
+        private void putInt(int v) throws IOException {
+            if (buf.remaining() < 4) drain();
+            buf.putInt(v);
+            offset += 4;
+        }
+
+        private void putLong(long v) throws IOException {
+            if (buf.remaining() < 8) drain();
+            buf.putLong(v);
+            offset += 8;
+        }
+
+        private void putBytes(byte[] b) throws IOException {
+            for (int i = 0; i < b.length; ) {
+                if (!buf.hasRemaining()) drain();
+                int k = Math.min(b.length - i, buf.remaining());
+                buf.put(b, i, k);
+                i += k;
+            }
+            offset += b.length;
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            buf.clear();
+        }
+    }
+
+    // ---- merge sources ----
+
+    private interface Source {
+        boolean valid();
+        int key();
+        int id();
+        Object value();     // encoded bytes or a memtable object; null for a tombstone
+        void next() throws IOException;
+    }
+
+    // The memtable entries of a range, copied so the scan can run without the tree lock.
+    private static class MemSource implements Source {
+        private final int[] keys, ids;
+        private final Object[] values;
+        private int pos;
+
+        MemSource(SecondaryIndex<?> memtable, int minKey, int maxKey) {
+            int n = memtable.countInRange(minKey, maxKey);
+            keys = new int[n];
+            ids = new int[n];
+            values = new Object[n];
+            int i = 0;
+            for (SecondaryIndex.Cursor<?> c = memtable.rangeCursor(minKey, maxKey); c.valid(); c.findNext()) {
+                keys[i] = c.key();
+                ids[i] = c.id();
+                values[i] = c.retrieve();
+                i++;
+            }
+        }
+
+        public boolean valid() { return pos < keys.length; }
+        public int key() { return keys[pos]; }
+        public int id() { return ids[pos]; }
+        public Object value() { return values[pos]; }
+        public void next() { pos++; }
+    }
+
+    // A frozen memtable is never modified again, so it is read in place.
+    private static class FrozenSource implements Source {
+        private final SecondaryIndex.Cursor<?> c;
+
+        FrozenSource(SecondaryIndex.Cursor<?> c) {
+            this.c = c;
+        }
+
+        public boolean valid() { return c.valid(); }
+        public int key() { return c.key(); }
+        public int id() { return c.id(); }
+        public Object value() { return c.retrieve(); }
+        public void next() { c.findNext(); }
+    }
+
+    // Sequential reader over the entries of a run, from a block start up to maxKey.
+    private static class RunSource implements Source {
+        private final Run run;
+        private final int maxKey;
+        private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        private long filePos;       // file offset of the byte after the buffered data
+        private long entryPos;      // file offset of the next entry to read
+        private boolean valid;
+        private int key, id;
+        private byte[] value;
+
+        RunSource(Run run, long start, int minKey, int maxKey) throws IOException {
+            this.run = run;
+            this.maxKey = maxKey;
+            this.filePos = start;
+            this.entryPos = start;
+            buf.limit(0);
+            next();
+            while (valid && key < minKey) {
+                next();
+            }
+        }
+
+        public boolean valid() { return valid; }
+        public int key() { return key; }
+        public int id() { return id; }
+        public Object value() { return value; }
+
+        public void next() throws IOException {
+            if (entryPos >= run.dataEnd) {
+                valid = false;
+                return;
+            }
+            ensure(12);
+            key = buf.getInt();
+            id = buf.getInt();
+            int len = buf.getInt();
+            if (len >= 0) {
+                ensure(len);
+                value = new byte[len];
+                buf.get(value);
+            }
+            else {
+                value = null;
+            }
+            entryPos += 12 + Math.max(0, len);
+            valid = key <= maxKey;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() >= bytes)
+                return;
+            if (bytes > buf.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(bytes);
+                bigger.put(buf);
+                buf = bigger;
+            }
+            else {
+                buf.compact();
+            }
+            while (buf.position() < bytes) {
+                int n = run.ch.read(buf, filePos);
+                if (n < 0)
+                    throw new IOException("Corrupt run file " + run.path);
+                filePos += n;
+            }
+            buf.flip();
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package datastructures.avl;
 
-public class LinkedList<T> {
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Doubly-linked list with head and tail pointers: append/prepend and removal at the cursor are O(1).
+public class LinkedList<T> implements Iterable<T> {
 	
 	private Node<T> head;
+	private Node<T> tail;
 	private Node<T> current;
 	private int size;
+	private int modCount;	// bumped on every structural change, checked by iterators
 	
 	public int getSize() {
 		return size;
@@ -15,7 +22,7 @@ public class LinkedList<T> {
 	}
 
 	public LinkedList() {
-		head = current = null;
+		head = tail = current = null;
 		size = 0;
 	
 	}
@@ -40,11 +47,21 @@ public class LinkedList<T> {
 		
 	}
 	
+	public void findLast() {
+		current = tail;
+		
+	}
+	
 	public void findNext() {
 		current = current.next;
 		
 	}
 	
+	public void findPrevious() {
+		current = current.prev;
+		
+	}
+	
 	public T retrieve() {
 		return current.data;
 		
@@ -55,52 +72,144 @@ public class LinkedList<T> {
 		
 	}
 	
+	// Inserts after the cursor and moves the cursor to the new element.
 	public void insert (T val) {
-		Node<T> tmp;
+		if (empty()) {
+			current = head = tail = new Node<T> (val);
+		}
+		else {
+			Node<T> tmp = new Node<T> (val);
+			tmp.prev = current;
+			tmp.next = current.next;
+			if (current.next != null)
+				current.next.prev = tmp;
+			else
+				tail = tmp;
+			current.next = tmp;
+			current = tmp;
+		}
+		size++;
+		modCount++;
+		
+	}
+	
+	// Appends at the tail regardless of the cursor position and moves the cursor to it.
+	public void append(T val) {
+		current = tail;
+		insert(val);
+		
+	}
+	
+	// Inserts at the head and moves the cursor to it.
+	public void prepend(T val) {
+		Node<T> tmp = new Node<T> (val);
+		tmp.next = head;
+		if (head != null)
+			head.prev = tmp;
+		else
+			tail = tmp;
+		current = head = tmp;
 		size++;
+		modCount++;
+		
+	}
+	
+	// Moves all elements of other to the end of this list in O(1); other becomes empty.
+	// The cursor moves to the last element.
+	public void concat(LinkedList<T> other) {
+		if (other == null || other == this || other.empty())
+			return;
 		
 		if (empty()) {
-			current = head = new Node<T> (val);	
+			head = other.head;
 		}
 		else {
-			tmp = current.next;
-			current.next =  new Node<T> (val);
-			current = current.next;
-			current.next = tmp;	
+			tail.next = other.head;
+			other.head.prev = tail;
 		}
+		tail = other.tail;
+		current = tail;
+		size += other.size;
+		modCount++;
+		
+		other.head = other.tail = other.current = null;
+		other.size = 0;
+		other.modCount++;
 		
 	}
 	
+	// Removes the element at the cursor; the cursor moves to the next element, or to head if the
+	// removed element was the last one.
 	public void remove() {
 		if(current == null)
 			return;
 		
-		size--;
+		unlink(current);
 		
-		if (current == head) {
-			head = head.next;
-	
+		if (current.next != null) {
+			current = current.next;
 		}
 		
 		else {
-			Node <T> tmp = head;
-			
-			while (tmp.next != current) {
-				tmp = tmp.next;
-			}
-			
-			tmp.next =current.next;
-			
-		}
-		
-		if (current.next == head) {
 			current = head;
 		}
 		
-		else {
-			current = current.next;
-		}
+	}
+	
+	private void unlink(Node<T> node) {
+		if (node.prev != null)
+			node.prev.next = node.next;
+		else
+			head = node.next;
+		
+		if (node.next != null)
+			node.next.prev = node.prev;
+		else
+			tail = node.prev;
 		
+		size--;
+		modCount++;
+		
+	}
+	
+	// Fail-fast iterator: any structural change made other than through the iterator's own remove()
+	// makes the next call throw ConcurrentModificationException. It does not move the cursor.
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			private Node<T> next = head;
+			private Node<T> lastReturned = null;
+			private int expectedModCount = modCount;
+			
+			public boolean hasNext() {
+				return next != null;
+			}
+			
+			public T next() {
+				checkForComodification();
+				if (next == null)
+					throw new NoSuchElementException();
+				lastReturned = next;
+				next = next.next;
+				return lastReturned.data;
+			}
+			
+			public void remove() {
+				if (lastReturned == null)
+					throw new IllegalStateException();
+				checkForComodification();
+				unlink(lastReturned);
+				// Same cursor rule as LinkedList.remove() if the cursor sat on the removed element.
+				if (current == lastReturned)
+					current = (lastReturned.next != null) ? lastReturned.next : head;
+				lastReturned = null;
+				expectedModCount = modCount;
+			}
+			
+			private void checkForComodification() {
+				if (modCount != expectedModCount)
+					throw new ConcurrentModificationException();
+			}
+		};
 	}
 
 }
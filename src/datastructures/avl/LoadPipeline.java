@@ -0,0 +1,180 @@
+package datastructures.avl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A small DAG scheduler for start-up loading. Each stage runs on the executor as soon as all of the
+// stages it depends on have finished, so independent branches overlap. A stage can only depend on
+// stages declared before it, which rules out cycles. Every stage records its own wall-clock time.
+public class LoadPipeline {
+
+    public static class Stage {
+        private final String name;
+        private final Runnable work;
+        private final LinkedList<Stage> dependents = new LinkedList<>();
+        private final AtomicInteger waiting;
+        private volatile long startNanos, endNanos;
+        private volatile boolean skipped;
+
+        private Stage(String name, Runnable work, int dependencies) {
+            this.name = name;
+            this.work = work;
+            this.waiting = new AtomicInteger(dependencies);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Time the stage spent running, 0 if it did not run.
+        public double getMillis() {
+            return (endNanos - startNanos) / 1_000_000.0;
+        }
+
+        // Offset of the stage start from the pipeline start.
+        long getStartNanos() {
+            return startNanos;
+        }
+
+        public boolean wasSkipped() {
+            return skipped;
+        }
+    }
+
+    private final LinkedList<Stage> stages = new LinkedList<>();
+    private volatile Throwable failure;
+    private volatile String failedStage;
+    private long startNanos, endNanos;
+    private boolean started;
+
+    // Declares a stage that runs after all stages in after have completed.
+    public Stage stage(String name, Runnable work, Stage... after) {
+        if (started)
+            throw new IllegalStateException("Pipeline already started");
+
+        Stage s = new Stage(name, work, after.length);
+        for (Stage dep : after) {
+            dep.dependents.append(s);
+        }
+        stages.append(s);
+        return s;
+    }
+
+    public void run() {
+        run(ForkJoinPool.commonPool());
+    }
+
+    // Runs every stage and waits for all of them. If a stage throws, the stages depending on it are
+    // skipped, independent branches still finish, and the first failure is rethrown here.
+    public void run(Executor executor) {
+        if (started)
+            throw new IllegalStateException("Pipeline already started");
+        started = true;
+
+        CountDownLatch done = new CountDownLatch(stages.getSize());
+        startNanos = System.nanoTime();
+
+        // Collect the roots first: a fast root could otherwise release a stage we have not visited yet.
+        LinkedList<Stage> roots = new LinkedList<>();
+        for (Stage s : stages) {
+            if (s.waiting.get() == 0)
+                roots.append(s);
+        }
+        for (Stage s : roots) {
+            submit(s, executor, done, false);
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading", e);
+        }
+        endNanos = System.nanoTime();
+
+        if (failure != null)
+            throw new IllegalStateException("Stage '" + failedStage + "' failed: " + failure.getMessage(), failure);
+    }
+
+    private void submit(Stage s, Executor executor, CountDownLatch done, boolean skip) {
+        executor.execute(() -> {
+            boolean failed = skip;
+            s.startNanos = s.endNanos = System.nanoTime();
+            if (skip) {
+                s.skipped = true;
+            }
+            else {
+                try {
+                    s.work.run();
+                } catch (Throwable t) {
+                    synchronized (this) {
+                        if (failure == null) {
+                            failure = t;
+                            failedStage = s.name;
+                        }
+                    }
+                    failed = true;
+                }
+                s.endNanos = System.nanoTime();
+            }
+
+            for (Stage next : s.dependents) {
+                // A dependent skips if any of its dependencies failed or skipped.
+                if (failed)
+                    next.skipped = true;
+                if (next.waiting.decrementAndGet() == 0)
+                    submit(next, executor, done, next.skipped);
+            }
+            done.countDown();
+        });
+    }
+
+    public LinkedList<Stage> getStages() {
+        return stages;
+    }
+
+    // Wall-clock time of the whole run.
+    public double getTotalMillis() {
+        return (endNanos - startNanos) / 1_000_000.0;
+    }
+
+    // One line per stage in declaration order: start offset, duration, and whether it was skipped.
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage s : stages) {
+            sb.append(String.format("%-16s start=+%.1f ms  took=%.1f ms%s%n", s.name,
+                    (s.getStartNanos() - startNanos) / 1_000_000.0, s.getMillis(), s.skipped ? "  (skipped)" : ""));
+        }
+        sb.append(String.format("%-16s %.1f ms%n", "total", getTotalMillis()));
+        return sb.toString();
+    }
+
+    // Record counts read by the pipeline built by loadAll, in file order.
+    public static class Counts {
+        public volatile int products, customers, orders, reviews;
+    }
+
+    // Builds the start-up load. All four files are parsed at once, each in parallel chunks by a
+    // ParallelCSVLoader on the common pool. Products and customers depend on nothing, so their stages
+    // index the chunks as they arrive. Orders and reviews are parsed into buffers by their own
+    // stages; only the linking stages wait: orders are indexed and linked to their customers once
+    // the customers are loaded, and reviews once the products are. A file that cannot be read or
+    // parsed fails its stage (and the linking stage after it), and run() rethrows it.
+    public static LoadPipeline loadAll(String products, String customers, String orders, String reviews, Counts counts) {
+        LoadPipeline p = new LoadPipeline();
+        ParallelCSVLoader loader = new ParallelCSVLoader();
+        LinkedList<Order> parsedOrders = new LinkedList<>();
+        LinkedList<Review> parsedReviews = new LinkedList<>();
+
+        Stage prods = p.stage("products", () -> counts.products = Product.loadProducts(products, loader));
+        Stage custs = p.stage("customers", () -> counts.customers = Customer.loadCustomers(customers, loader));
+        Stage readOrders = p.stage("parse orders", () -> counts.orders = loader.streamOrders(orders, parsedOrders::concat));
+        Stage readReviews = p.stage("parse reviews", () -> counts.reviews = loader.streamReviews(reviews, parsedReviews::concat));
+        p.stage("link orders", () -> Order.setOrders(parsedOrders), readOrders, custs);
+        p.stage("link reviews", () -> Review.setReviews(parsedReviews), readReviews, prods);
+
+        return p;
+    }
+}
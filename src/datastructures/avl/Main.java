@@ -75,15 +75,14 @@ public class Main {
         String ORDERS    = joinPath(dataFolder, "orders.csv");
         String REVIEWS   = joinPath(dataFolder, "reviews.csv");
 
-        // Read CSV files
-        LinkedList<Product>  prods = SimpleCSVReader.readProducts(PRODUCTS);
-        LinkedList<Customer> custs = SimpleCSVReader.readCustomers(CUSTOMERS);
-        LinkedList<Order>    ords  = SimpleCSVReader.readOrders(ORDERS);
-        LinkedList<Review>   revs  = SimpleCSVReader.readReviews(REVIEWS);
-
-        // Basic check
-        if (prods == null || custs == null || ords == null || revs == null) {
-            System.out.println("Failed to load one or more CSV files.");
+        // Parse the CSV files concurrently; orders are linked after customers, reviews after products
+        LoadPipeline.Counts loaded = new LoadPipeline.Counts();
+        LoadPipeline pipeline = LoadPipeline.loadAll(PRODUCTS, CUSTOMERS, ORDERS, REVIEWS, loaded);
+        try {
+            pipeline.run();
+        } catch (IllegalStateException e) {
+            // A missing or malformed file fails its stage; an empty file is a valid, empty table
+            System.out.println("Failed to load one or more CSV files: " + e.getMessage());
             System.out.println("Expected files in: " + dataFolder);
             System.out.println(" - " + PRODUCTS);
             System.out.println(" - " + CUSTOMERS);
@@ -93,16 +92,16 @@ public class Main {
             return;
         }
 
-        // Set global data
-        Product.setAllProducts(prods);
-        Customer.setCustomers(custs);
-        Order.setOrders(ords);
-        Review.setReviews(revs);
+        int prods = loaded.products;
+        int custs = loaded.customers;
+        int ords  = loaded.orders;
+        int revs  = loaded.reviews;
 
-        System.out.println("Loaded: Products=" + prods.getSize() +
-                " | Customers=" + custs.getSize() +
-                " | Orders=" + ords.getSize() +
-                " | Reviews=" + revs.getSize());
+        System.out.println("Loaded: Products=" + prods +
+                " | Customers=" + custs +
+                " | Orders=" + ords +
+                " | Reviews=" + revs);
+        System.out.print(pipeline.report());
 
         // === Demo calls ===
 
@@ -0,0 +1,221 @@
+package datastructures.avl;
+
+import java.util.Arrays;
+
+// Ordered index on (name, id): names compare case-insensitively (as String.compareToIgnoreCase)
+// and equal names are ordered by id, so every entry has a unique position.
+//
+// Kept in a SecondaryIndex rather than a tree of its own. packed() maps the first ten characters
+// of a name to a (key, id) pair of that index in a way that never orders two names the wrong way
+// round; its alphabet is coarser than char, so different names can only tie. Entries whose pairs
+// tie share a Group, a small array sorted by (name, id); with real names a group holds a handful.
+public class NameIndex<T> {
+
+    private static final int CHARS = 5;   // characters per packed int, 6 bits each
+
+    private SecondaryIndex<Group<T>> groups;
+    private int size;
+
+    public NameIndex() {
+        groups = new SecondaryIndex<>();
+        size = 0;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    private static int compare(String name1, int id1, String name2, int id2) {
+        int c = name1.compareToIgnoreCase(name2);
+        if (c != 0) return c;
+        return Integer.compare(id1, id2);
+    }
+
+    // Codes of name's characters [from, from + CHARS), first character in the high bits, 0 past
+    // the end; so a name sorts before every longer name it is a prefix of.
+    private static int packed(String name, int from) {
+        int key = 0;
+        for (int i = from; i < from + CHARS; i++)
+            key = (key << 6) | (i < name.length() ? code(name.charAt(i)) : 0);
+        return key;
+    }
+
+    // 6-bit code of a char after case folding the way compareToIgnoreCase does; never decreases
+    // as the folded char grows. 0 is reserved for "name ended".
+    private static int code(char ch) {
+        char f = Character.toLowerCase(Character.toUpperCase(ch));
+        if (f <= ' ') return 1;
+        if (f < '0') return 2;
+        if (f <= '9') return 3 + (f - '0');
+        if (f < 'a') return 13;
+        if (f <= 'z') return 14 + (f - 'a');
+        if (f < 128) return 40;
+        return 41 + Math.min(22, (f - 128) >> 4);
+    }
+
+    // Returns false if (name, id) is already indexed.
+    public boolean insert(String name, int id, T data) {
+        int key = packed(name, 0), sub = packed(name, CHARS);
+        Group<T> g = groups.search(key, sub);
+        if (g == null) {
+            g = new Group<>();
+            groups.insert(key, sub, g);
+        }
+        int pos = g.find(name, id);
+        if (pos >= 0)
+            return false;
+        g.insertAt(-pos - 1, name, id, data);
+        size++;
+        return true;
+    }
+
+    public boolean remove(String name, int id) {
+        int key = packed(name, 0), sub = packed(name, CHARS);
+        Group<T> g = groups.search(key, sub);
+        int pos = (g == null) ? -1 : g.find(name, id);
+        if (pos < 0)
+            return false;
+        g.removeAt(pos);
+        if (g.count == 0)
+            groups.remove(key, sub);
+        size--;
+        return true;
+    }
+
+    // Re-files an entry after its name changed.
+    public void rename(String oldName, String newName, int id, T data) {
+        remove(oldName, id);
+        insert(newName, id, data);
+    }
+
+    // Streams all entries in (name, id) order.
+    public Cursor<T> cursor() {
+        return new Cursor<>(groups.cursor(), 0);
+    }
+
+    // Streams the entries that come strictly after (name, id) - the paging "continue after" position.
+    // Every such entry is in (name, id)'s group or a later one.
+    public Cursor<T> cursorAfter(String name, int id) {
+        int key = packed(name, 0), sub = packed(name, CHARS);
+        SecondaryIndex.Cursor<Group<T>> c = groups.cursorFrom(key, sub);
+        int start = 0;
+        if (c.valid() && c.key() == key && c.id() == sub) {
+            int pos = c.retrieve().find(name, id);
+            start = (pos >= 0) ? pos + 1 : -pos - 1;
+        }
+        return new Cursor<>(c, start);
+    }
+
+    // Returns up to count entries strictly after (name, id); pass the last entry of the previous page.
+    public LinkedList<T> pageAfter(String name, int id, int count) {
+        LinkedList<T> result = new LinkedList<>();
+        Cursor<T> c = (name == null) ? cursor() : cursorAfter(name, id);
+        for (int i = 0; i < count && c.valid(); i++) {
+            result.insert(c.retrieve());
+            c.findNext();
+        }
+        return result;
+    }
+
+    public LinkedList<T> inOrderTraversal() {
+        LinkedList<T> result = new LinkedList<>();
+        for (Cursor<T> c = cursor(); c.valid(); c.findNext())
+            result.insert(c.retrieve());
+        return result;
+    }
+
+    // Entries whose packed names tie, in (name, id) order.
+    private static final class Group<T> {
+        String[] names = new String[1];
+        int[] ids = new int[1];
+        Object[] data = new Object[1];
+        int count;
+
+        // Position of (name, id), or -(insertion point) - 1 if it is not in the group.
+        int find(String name, int id) {
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compare(names[mid], ids[mid], name, id);
+                if (c < 0) lo = mid + 1;
+                else if (c > 0) hi = mid - 1;
+                else return mid;
+            }
+            return -lo - 1;
+        }
+
+        void insertAt(int pos, String name, int id, Object value) {
+            if (count == names.length) {
+                int capacity = 2 * count;
+                names = Arrays.copyOf(names, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                data = Arrays.copyOf(data, capacity);
+            }
+            System.arraycopy(names, pos, names, pos + 1, count - pos);
+            System.arraycopy(ids, pos, ids, pos + 1, count - pos);
+            System.arraycopy(data, pos, data, pos + 1, count - pos);
+            names[pos] = name;
+            ids[pos] = id;
+            data[pos] = value;
+            count++;
+        }
+
+        void removeAt(int pos) {
+            count--;
+            System.arraycopy(names, pos + 1, names, pos, count - pos);
+            System.arraycopy(ids, pos + 1, ids, pos, count - pos);
+            System.arraycopy(data, pos + 1, data, pos, count - pos);
+            names[count] = null;
+            data[count] = null;
+        }
+    }
+
+    // Walks the groups in order and each group's entries in turn.
+    public static class Cursor<T> {
+
+        private final SecondaryIndex.Cursor<Group<T>> groups;
+        private Group<T> group;
+        private int i;
+
+        // Starts at entry start of the cursor's current group.
+        private Cursor(SecondaryIndex.Cursor<Group<T>> groups, int start) {
+            this.groups = groups;
+            group = groups.valid() ? groups.retrieve() : null;
+            i = start;
+            if (group != null && i == group.count)
+                nextGroup();
+        }
+
+        public boolean valid() {
+            return group != null;
+        }
+
+        public String name() {
+            return group.names[i];
+        }
+
+        public int id() {
+            return group.ids[i];
+        }
+
+        @SuppressWarnings("unchecked")
+        public T retrieve() {
+            return (T) group.data[i];
+        }
+
+        public void findNext() {
+            if (++i == group.count)
+                nextGroup();
+        }
+
+        private void nextGroup() {
+            groups.findNext();
+            group = groups.valid() ? groups.retrieve() : null;
+            i = 0;
+        }
+    }
+}
@@ -3,15 +3,16 @@ package datastructures.avl;
 public class Node <T> {
 	public T data;
 	public Node<T> next;
+	public Node<T> prev;
 	
 	public Node() {
 		data = null;
-		next = null;
+		next = prev = null;
 	}
 	
 	public Node(T val) {
 		data = val;
-		next = null;
+		next = prev = null;
 	}
 
 	public T getData() {
@@ -29,5 +30,13 @@ public class Node <T> {
 	public void setNext(Node<T> next) {
 		this.next = next;
 	}
+
+	public Node<T> getPrev() {
+		return prev;
+	}
+
+	public void setPrev(Node<T> prev) {
+		this.prev = prev;
+	}
 	
 }
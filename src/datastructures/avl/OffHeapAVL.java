@@ -0,0 +1,413 @@
+package datastructures.avl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// AVL map from int keys to long values whose nodes live outside the Java heap, so the GC never
+// traces them no matter how many there are. Nodes are fixed-size records addressed by int index,
+// as in ArrayAVL, stored in segments of SEGMENT_NODES records each. A segment is either a direct
+// buffer (new OffHeapAVL()) or a mapped region of a file (open(file)); a file-backed tree is
+// remapped as-is by the next open, with no rebuild. Values are plain longs, typically a row
+// number or file offset of the object the key names.
+//
+// File layout (big-endian):
+//   header: int MAGIC, int VERSION, int RECORD, int SEGMENT_NODES, int root, int size, int used,
+//           int free, int segments, int clean, padded to HEADER bytes
+//   segments: SEGMENT_NODES records of int key, int left, int right, int height, long value
+// The header is only written by force() and close(). open() clears the clean flag on disk and
+// close() sets it again after everything else is forced, so open() rejects a file that was not
+// closed cleanly; such a file must be rebuilt (e.g. from a WriteAheadLog). Not thread-safe.
+public class OffHeapAVL implements AutoCloseable {
+
+    static final int MAGIC = 0x41564C4F;    // "AVLO"
+    static final int VERSION = 2;    // 2: clean-shutdown flag
+
+    private static final int NIL = -1;
+    private static final int HEADER = 64;
+
+    private static final int RECORD = 24;
+    private static final int KEY = 0, LEFT = 4, RIGHT = 8, HEIGHT = 12, VALUE = 16;
+
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_NODES = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_NODES - 1;
+    private static final long SEGMENT_BYTES = (long) SEGMENT_NODES * RECORD;
+
+    private final FileChannel channel;      // null for a tree held in direct buffers
+    private MappedByteBuffer header;
+    private ByteBuffer[] segments = new ByteBuffer[4];
+    private int segmentCount;
+    private int root = NIL;
+    private int size;
+    private int used;       // slots handed out so far; slots below used are live or on the free list
+    private int free = NIL; // head of the free list, chained through the left field
+
+    // An empty tree in direct (off-heap, not file-backed) memory.
+    public OffHeapAVL() {
+        channel = null;
+    }
+
+    private OffHeapAVL(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    // Opens the tree stored in file, creating an empty one if the file does not exist or is empty.
+    public static OffHeapAVL open(String file) throws IOException {
+        Path path = Paths.get(file);
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        OffHeapAVL tree = new OffHeapAVL(ch);
+        try {
+            boolean existing = ch.size() > 0;
+            tree.header = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+            if (existing) tree.remap(path);
+            else tree.writeHeader();
+            tree.header.putInt(36, 0);   // dirty until close()
+            tree.header.force();
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+        return tree;
+    }
+
+    private void remap(Path path) throws IOException {
+        if (header.getInt(0) != MAGIC)
+            throw new IOException(path + " is not an off-heap AVL file");
+        if (header.getInt(4) != VERSION)
+            throw new IOException(path + ": unsupported version " + header.getInt(4));
+        if (header.getInt(8) != RECORD || header.getInt(12) != SEGMENT_NODES)
+            throw new IOException(path + ": record layout " + header.getInt(8) + "/"
+                    + header.getInt(12) + " does not match " + RECORD + "/" + SEGMENT_NODES);
+        if (header.getInt(36) != 1)
+            throw new IOException(path + " was not closed cleanly and must be rebuilt");
+
+        root = header.getInt(16);
+        size = header.getInt(20);
+        used = header.getInt(24);
+        free = header.getInt(28);
+        int count = header.getInt(32);
+        if (channel.size() < HEADER + count * SEGMENT_BYTES)
+            throw new IOException(path + " is truncated");
+        for (int i = 0; i < count; i++) addSegment();
+    }
+
+    private void writeHeader() {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, RECORD);
+        header.putInt(12, SEGMENT_NODES);
+        header.putInt(16, root);
+        header.putInt(20, size);
+        header.putInt(24, used);
+        header.putInt(28, free);
+        header.putInt(32, segmentCount);
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Bytes of off-heap memory (or file) held by the node segments.
+    public long getCapacityBytes() {
+        return segmentCount * SEGMENT_BYTES;
+    }
+
+    public boolean contains(int key) {
+        return findNode(key) != NIL;
+    }
+
+    // Returns the value stored for key, or defaultValue if the key is absent.
+    public long get(int key, long defaultValue) {
+        int n = findNode(key);
+        return (n == NIL) ? defaultValue : value(n);
+    }
+
+    // Adds (key, value); returns false and leaves the old value in place if key already exists.
+    public boolean insert(int key, long value) {
+        int before = size;
+        root = insertRecursive(root, key, value, false);
+        return size != before;
+    }
+
+    // Adds or overwrites the value for key.
+    public void put(int key, long value) {
+        root = insertRecursive(root, key, value, true);
+    }
+
+    public boolean delete(int key) {
+        int before = size;
+        root = deleteRecursive(root, key);
+        return size != before;
+    }
+
+    // Returns all keys in ascending order.
+    public IntList getKeysSorted() {
+        return rangeKeys(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    // Returns the keys in [minKey, maxKey] (inclusive), ascending.
+    public IntList rangeKeys(int minKey, int maxKey) {
+        IntList result = new IntList();
+        rangeRecursive(root, minKey, maxKey, result);
+        return result;
+    }
+
+    // Writes the header and flushes the mapped segments to the file; no-op for a direct tree.
+    public void force() {
+        if (channel == null) return;
+        writeHeader();
+        for (int i = 0; i < segmentCount; i++) ((MappedByteBuffer) segments[i]).force();
+        header.force();
+    }
+
+    // Forces a file-backed tree and closes its file. The mappings themselves are released when
+    // the buffers are collected; the tree must not be used afterwards.
+    public void close() throws IOException {
+        if (channel == null) {
+            segments = new ByteBuffer[4];   // direct buffers are freed once unreachable
+            segmentCount = 0;
+            root = free = NIL;
+            size = used = 0;
+            return;
+        }
+        if (!channel.isOpen()) return;
+        force();
+        header.putInt(36, 1);
+        header.force();
+        channel.close();
+    }
+
+    private void addSegment() throws IOException {
+        if (segmentCount == segments.length) {
+            ByteBuffer[] s = new ByteBuffer[segments.length * 2];
+            System.arraycopy(segments, 0, s, 0, segmentCount);
+            segments = s;
+        }
+        ByteBuffer segment = (channel == null)
+                ? ByteBuffer.allocateDirect((int) SEGMENT_BYTES)
+                : channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER + segmentCount * SEGMENT_BYTES, SEGMENT_BYTES);
+        segments[segmentCount++] = segment;
+    }
+
+    private int findNode(int key) {
+        int n = root;
+        while (n != NIL) {
+            ByteBuffer s = segments[n >>> SEGMENT_SHIFT];
+            int off = (n & SEGMENT_MASK) * RECORD;
+            int k = s.getInt(off + KEY);
+            if (key == k) return n;
+            n = s.getInt(off + (key < k ? LEFT : RIGHT));
+        }
+        return NIL;
+    }
+
+    private void rangeRecursive(int n, int minKey, int maxKey, IntList result) {
+        if (n == NIL) return;
+
+        if (key(n) > minKey)
+            rangeRecursive(left(n), minKey, maxKey, result);
+
+        if (key(n) >= minKey && key(n) <= maxKey)
+            result.add(key(n));
+
+        if (key(n) < maxKey)
+            rangeRecursive(right(n), minKey, maxKey, result);
+    }
+
+    private int newNode(int key, long value) {
+        int n;
+        if (free != NIL) {
+            n = free;
+            free = left(n);
+        } else {
+            if (used == Integer.MAX_VALUE) throw new IllegalStateException("off-heap AVL is full");
+            if ((used >>> SEGMENT_SHIFT) == segmentCount) {
+                try {
+                    addSegment();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            n = used++;
+        }
+        ByteBuffer s = segments[n >>> SEGMENT_SHIFT];
+        int off = (n & SEGMENT_MASK) * RECORD;
+        s.putInt(off + KEY, key);
+        s.putInt(off + LEFT, NIL);
+        s.putInt(off + RIGHT, NIL);
+        s.putInt(off + HEIGHT, 1);
+        s.putLong(off + VALUE, value);
+        size++;
+        return n;
+    }
+
+    private void freeNode(int n) {
+        setLeft(n, free);
+        free = n;
+        size--;
+    }
+
+    private int key(int n) { return getInt(n, KEY); }
+    private int left(int n) { return getInt(n, LEFT); }
+    private int right(int n) { return getInt(n, RIGHT); }
+    private long value(int n) { return segments[n >>> SEGMENT_SHIFT].getLong((n & SEGMENT_MASK) * RECORD + VALUE); }
+    private void setLeft(int n, int child) { putInt(n, LEFT, child); }
+    private void setRight(int n, int child) { putInt(n, RIGHT, child); }
+
+    private void setValue(int n, long value) {
+        segments[n >>> SEGMENT_SHIFT].putLong((n & SEGMENT_MASK) * RECORD + VALUE, value);
+    }
+
+    private int getInt(int n, int field) {
+        return segments[n >>> SEGMENT_SHIFT].getInt((n & SEGMENT_MASK) * RECORD + field);
+    }
+
+    private void putInt(int n, int field, int v) {
+        segments[n >>> SEGMENT_SHIFT].putInt((n & SEGMENT_MASK) * RECORD + field, v);
+    }
+
+    private int getHeight(int n) {
+        return (n == NIL) ? 0 : getInt(n, HEIGHT);
+    }
+
+    private void updateHeight(int n) {
+        putInt(n, HEIGHT, 1 + Math.max(getHeight(left(n)), getHeight(right(n))));
+    }
+
+    private int getBalance(int n) {
+        return getHeight(left(n)) - getHeight(right(n));
+    }
+
+    private int rightRotate(int y) {
+        int x = left(y);
+        setLeft(y, right(x));
+        setRight(x, y);
+        updateHeight(y);
+        updateHeight(x);
+        return x;
+    }
+
+    private int leftRotate(int x) {
+        int y = right(x);
+        setRight(x, left(y));
+        setLeft(y, x);
+        updateHeight(x);
+        updateHeight(y);
+        return y;
+    }
+
+    // Restores the AVL property at n after one of its subtrees changed height by one.
+    private int rebalance(int n) {
+        updateHeight(n);
+        int balance = getBalance(n);
+
+        if (balance > 1) {
+            if (getBalance(left(n)) < 0)
+                setLeft(n, leftRotate(left(n)));
+            return rightRotate(n);
+        }
+
+        if (balance < -1) {
+            if (getBalance(right(n)) > 0)
+                setRight(n, rightRotate(right(n)));
+            return leftRotate(n);
+        }
+
+        return n;
+    }
+
+    private int insertRecursive(int n, int key, long value, boolean overwrite) {
+        if (n == NIL) {
+            return newNode(key, value);
+        }
+
+        if (key < key(n)) {
+            setLeft(n, insertRecursive(left(n), key, value, overwrite));
+        } else if (key > key(n)) {
+            setRight(n, insertRecursive(right(n), key, value, overwrite));
+        } else {
+            if (overwrite) setValue(n, value);
+            return n;
+        }
+
+        return rebalance(n);
+    }
+
+    private int deleteRecursive(int n, int key) {
+        if (n == NIL) {
+            return NIL;
+        }
+
+        if (key < key(n)) {
+            setLeft(n, deleteRecursive(left(n), key));
+        } else if (key > key(n)) {
+            setRight(n, deleteRecursive(right(n), key));
+        } else if (left(n) == NIL || right(n) == NIL) {
+            int child = (left(n) != NIL) ? left(n) : right(n);
+            freeNode(n);
+            return child;
+        } else {
+            // Two children: take over the successor's entry, then remove the successor.
+            int s = right(n);
+            while (left(s) != NIL) s = left(s);
+            putInt(n, KEY, key(s));
+            setValue(n, value(s));
+            setRight(n, deleteRecursive(right(n), key(s)));
+        }
+
+        return rebalance(n);
+    }
+
+    // Verifies key order, cached heights and the AVL balance of every node, that the tree holds size
+    // nodes, and that those plus the free list account for every slot below used; throws
+    // IllegalStateException at the first violation. Used by the model check.
+    void checkInvariants() {
+        int[] count = new int[1];
+        checkRecursive(root, Long.MIN_VALUE, Long.MAX_VALUE, count);
+        if (count[0] != size)
+            throw new IllegalStateException("tree holds " + count[0] + " nodes, size is " + size);
+
+        int freeCount = 0;
+        for (int n = free; n != NIL; n = left(n)) {
+            if (n < 0 || n >= used || ++freeCount > used)
+                throw new IllegalStateException("broken free list at slot " + n);
+        }
+        if (size + freeCount != used)
+            throw new IllegalStateException(size + " live and " + freeCount + " free slots, " + used + " used");
+    }
+
+    // Returns the height of the subtree; keys must lie strictly inside (lo, hi).
+    private int checkRecursive(int n, long lo, long hi, int[] count) {
+        if (n == NIL) return 0;
+        if (n < 0 || n >= used)
+            throw new IllegalStateException("link to unused slot " + n);
+        if (key(n) <= lo || key(n) >= hi)
+            throw new IllegalStateException("key " + key(n) + " out of order");
+        count[0]++;
+
+        int hl = checkRecursive(left(n), lo, key(n), count);
+        int hr = checkRecursive(right(n), key(n), hi, count);
+        if (getHeight(n) != 1 + Math.max(hl, hr))
+            throw new IllegalStateException("stale height at " + key(n));
+        if (Math.abs(hl - hr) > 1)
+            throw new IllegalStateException("unbalanced at " + key(n));
+        return getHeight(n);
+    }
+
+    public String toString() {
+        return "OffHeapAVL[size=" + size + ", root=" + (root != NIL ? key(root) : "null")
+                + (channel != null ? ", file-backed" : "") + "]";
+    }
+}
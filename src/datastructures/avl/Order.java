@@ -1,49 +1,238 @@
 package datastructures.avl;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Month;
+import java.time.Year;
+
 public class Order {
 
     private int orderId;
     private int customerId;
-    private LinkedList<Integer> items;
+    private IntList items;
     private double totalPrice;
     private String orderDate;
+    private int orderDay;   // orderDate as days since 1970-01-01, parsed once
     private String status;
 
-    // Shared in-memory index of orders by orderId for fast lookup.
-    private static AVL<Order> orders = new AVL<>();
+    // Shared in-memory index of orders by orderId for fast lookup; see setIndexKind.
+    // Persistent by default, so long scans can run on a snapshot while orders keep being added.
+    private static OrderedIndex.Kind indexKind = OrderedIndex.Kind.PERSISTENT_AVL_TREE;
+    private static OrderedIndex<Order> orders = indexKind.create();
+
+    // Secondary index on orderDay, ties ordered by orderId; kept in sync with orders.
+    private static SecondaryIndex<Order> dateIndex = new SecondaryIndex<>();
 
-    public Order(int orderId, int customerId, LinkedList<Integer> items,
+    // Optional on-disk store (see openStorage). While open it replaces orders and dateIndex:
+    // orders by (orderId, 0), and the date index as (orderDay, orderId) entries.
+    private static LSMTree<Order> storedOrders;
+    private static LSMTree<Boolean> storedDates;
+
+    public Order(int orderId, int customerId, IntList items,
                  double totalPrice, String orderDate, String status) {
+        this(orderId, customerId, items, totalPrice, orderDate, parseEpochDay(orderDate), status);
+    }
+
+    // Used by the CSV loader, which has already parsed orderDate into orderDay. Every order has a
+    // date: parseEpochDay rejects null, so orderDate is never null.
+    public Order(int orderId, int customerId, IntList items,
+                 double totalPrice, String orderDate, int orderDay, String status) {
         this.orderId = orderId;
         this.customerId = customerId;
         this.items = items;
         this.totalPrice = totalPrice;
         this.orderDate = orderDate;
+        this.orderDay = orderDay;
         this.status = status;
     }
 
+    // Parses "YYYY-MM-DD" into days since 1970-01-01 without allocating. Throws
+    // IllegalArgumentException for null, another format or a day the month does not have.
+    public static int parseEpochDay(String date) {
+        if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-')
+            throw new IllegalArgumentException("Invalid date (expected YYYY-MM-DD): " + date);
+
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        if (month < 1 || month > 12 || day < 1 || day > Month.of(month).length(Year.isLeap(year)))
+            throw new IllegalArgumentException("Invalid date (expected YYYY-MM-DD): " + date);
+
+        // Days-from-civil: shift the year to start in March so leap days fall at the end.
+        int y = (month <= 2) ? year - 1 : year;
+        int era = y / 400;
+        int yoe = y - era * 400;
+        int mp = (month + 9) % 12;
+        int doy = (153 * mp + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int digits(String s, int from, int to) {
+        int v = 0;
+        for (int i = from; i < to; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9')
+                throw new IllegalArgumentException("Invalid date (expected YYYY-MM-DD): " + s);
+            v = v * 10 + (ch - '0');
+        }
+        return v;
+    }
+
     public int getOrderId() { return orderId; }
     public int getCustomerId() { return customerId; }
-    public LinkedList<Integer> getItems() { return items; }
+    public IntList getItems() { return items; }
     public double getTotalPrice() { return totalPrice; }
     public String getOrderDate() { return orderDate; }
+    public int getOrderDay() { return orderDay; }
     public String getStatus() { return status; }
 
-    // Returns orders ordered by orderId (AVL in-order traversal).
+    // Moves the order index to an LSM store in dir, so order history is bounded by disk rather than
+    // heap. Orders already in memory are written to the store. Customer order histories are not
+    // linked while the store is open, since they would keep every order on the heap again.
+    public static void openStorage(String dir, int memtableLimit) throws IOException {
+        if (storedOrders != null)
+            throw new IllegalStateException("Order storage is already open");
+
+        LSMTree<Order> stored = LSMTree.open(dir + "/orders", CODEC, memtableLimit, 4);
+        LSMTree<Boolean> dates;
+        try {
+            dates = LSMTree.open(dir + "/dates", DATE_CODEC, memtableLimit, 4);
+        } catch (IOException e) {
+            stored.close();
+            throw e;
+        }
+
+        for (OrderedIndex.Cursor<Order> c = orders.cursor(); c.valid(); c.findNext()) {
+            Order o = c.retrieve();
+            stored.put(o.orderId, 0, o);
+            dates.put(o.orderDay, o.orderId, Boolean.TRUE);
+        }
+        storedOrders = stored;
+        storedDates = dates;
+        orders = indexKind.create();
+        dateIndex = new SecondaryIndex<>();
+    }
+
+    public static boolean isStorageOpen() {
+        return storedOrders != null;
+    }
+
+    // Writes the in-memory part of the store to run files.
+    public static void flushStorage() throws IOException {
+        if (storedOrders == null) return;
+        storedOrders.flush();
+        storedDates.flush();
+    }
+
+    // Flushes and closes the store; orders start again from an empty in-memory index.
+    public static void closeStorage() throws IOException {
+        if (storedOrders == null) return;
+        try {
+            storedOrders.close();
+        } finally {
+            storedDates.close();
+            storedOrders = null;
+            storedDates = null;
+        }
+    }
+
+    // Returns orders ordered by orderId (in-order traversal of the current version).
     public static LinkedList<Order> getOrders() {
+        if (storedOrders != null)
+            return storedOrders.rangeQuery(Integer.MIN_VALUE, Integer.MAX_VALUE);
         return orders.inOrderTraversal();
     }
 
+    // Same orders as getOrders(), stored in array chunks for large batch scans.
+    public static ChunkedList<Order> getOrdersChunked() {
+        if (storedOrders != null) {
+            ChunkedList<Order> chunks = new ChunkedList<>();
+            for (Order o : getOrders()) {
+                chunks.append(o);
+            }
+            return chunks;
+        }
+        return orders.inOrderChunked();
+    }
+
+    // O(1) frozen view of the order index for reporting jobs; unaffected by later addOrder calls.
+    // The Order objects are shared, so status changes made afterwards are still visible.
+    // With on-disk storage or a non-persistent index the view is built from a full scan instead.
+    public static PersistentAVL<Order> snapshotOrders() {
+        if (storedOrders == null && orders instanceof PersistentAVL)
+            return ((PersistentAVL<Order>) orders).snapshot();
+        return PersistentAVL.buildFromSorted(getOrders(), Order::getOrderId);
+    }
+
+    // Switches the in-memory orderId index to another structure, moving the current orders into it.
+    // Only PERSISTENT_AVL_TREE gives O(1) snapshots and lets readers run alongside a writer.
+    public static void setIndexKind(OrderedIndex.Kind kind) {
+        orders = kind.buildFromSorted(orders.inOrderTraversal(), Order::getOrderId);
+        indexKind = kind;
+    }
+
+    public static OrderedIndex.Kind getIndexKind() {
+        return indexKind;
+    }
+
+    // Returns up to count orders starting at the given position in orderId order.
+    public static LinkedList<Order> getOrdersPage(int offset, int count) {
+        if (storedOrders != null)
+            return storedOrders.page(offset, count);
+        return orders.page(offset, count);
+    }
+
+    // O(1), with or without storage: the store keeps a live-entry count.
+    public static int getOrderCount() {
+        if (storedOrders != null)
+            return storedOrders.getSize();
+        return orders.getSize();
+    }
+
     public void setOrderId(int orderId) { this.orderId = orderId; }
     public void setCustomerId(int customerId) { this.customerId = customerId; }
-    public void setItems(LinkedList<Integer> items) { this.items = items; }
+    public void setItems(IntList items) { this.items = items; }
     public void setTotalPrice(double totalPrice) { this.totalPrice = totalPrice; }
-    public void setOrderDate(String orderDate) { this.orderDate = orderDate; }
+    public void setOrderDate(String orderDate) {
+        int day = parseEpochDay(orderDate);
+        boolean stored = storedOrders != null && storedOrders.get(orderId, 0) != null;
+        if (stored && day != orderDay) {
+            storedDates.delete(orderDay, orderId);
+            storedDates.put(day, orderId, Boolean.TRUE);
+        }
+        else if (orders.search(orderId) == this) {
+            dateIndex.move(this.orderDay, day, orderId, this);
+        }
+        this.orderDate = orderDate;
+        this.orderDay = day;
+        if (stored) {
+            storedOrders.put(orderId, 0, this);
+        }
+    }
     public void setStatus(String status) { this.status = status; }
 
-    // Rebuilds the AVL index from a list and re-links each order to its customer history.
+    // Rebuilds the orderId index from a list and re-links each order to its customer history.
+    // With on-disk storage the orders are added to (or replace their entries in) the store instead.
     public static void setOrders(LinkedList<Order> list) {
-        orders = new AVL<>();
+        if (storedOrders != null) {
+            if (list != null) {
+                for (Order o : list) {
+                    storeOrder(o);
+                }
+            }
+            return;
+        }
+
+        // Bulk-load: linear when the list is already sorted by orderId.
+        orders = indexKind.buildFromSorted(list, Order::getOrderId);
+
+        dateIndex = new SecondaryIndex<>();
+        for (OrderedIndex.Cursor<Order> c = orders.cursor(); c.valid(); c.findNext()) {
+            Order o = c.retrieve();
+            dateIndex.insert(o.orderDay, o.orderId, o);
+        }
 
         if (list == null || list.empty()) {
             return;
@@ -52,7 +241,6 @@ public class Order {
         list.findFirst();
         while (true) {
             Order o = list.retrieve();
-            orders.insert(o.getOrderId(), o);
 
             Customer c = Customer.findCustomer(o.getCustomerId());
             if (c != null) {
@@ -64,75 +252,235 @@ public class Order {
         }
     }
 
+    // With on-disk storage the result is the live object while the order is still in the store's
+    // memtable, and a freshly decoded copy once it has been flushed to a run file. Changes made to
+    // it directly are therefore not reliably stored; use cancelOrder/updateOrderStatus.
     public static Order findOrder(int orderId) {
+        if (storedOrders != null)
+            return storedOrders.get(orderId, 0);
         return orders.search(orderId);
     }
 
     // Adds the order to the global index and attaches it to the owning customer (if found).
+    // Serialized with the other order mutators below on the Order class, since the date index and
+    // the customer's history are not thread-safe; the wait for the log happens outside the monitor.
     public static boolean addOrder(Order order) {
-
-        if (orders.search(order.getOrderId()) != null) {
+        if (!addOrder(order, true)) {
             System.out.println("Order is found!");
             return false;
         }
+        WriteAheadLog.awaitCommit();
+
+        System.out.println("Order is added successfully!");
+        return true;
+    }
+
+    // Applies addOrder on the Order class and logs it only when log is set; replay passes false.
+    // cancelOrder and updateOrderStatus are split the same way.
+    static synchronized boolean addOrder(Order order, boolean log) {
+        if (!index(order)) {
+            return false;
+        }
+        if (log) WriteAheadLog.logAddOrder(order);
+        return true;
+    }
+
+    // Indexes the order and links it to its customer; false if the orderId is already taken.
+    static boolean index(Order order) {
+        if (storedOrders != null) {
+            if (storedOrders.get(order.orderId, 0) != null)
+                return false;
+            storeOrder(order);
+            return true;
+        }
 
-        orders.insert(order.getOrderId(), order);
+        if (!orders.insert(order.getOrderId(), order)) {
+            return false;
+        }
+        dateIndex.insert(order.orderDay, order.orderId, order);
 
         Customer customer = Customer.findCustomer(order.getCustomerId());
         if (customer != null) {
             customer.addOrder(order);
         }
-
-        System.out.println("Order is added successfully!");
         return true;
     }
 
+    // Writes the order and its date entry to the store, replacing an older version.
+    private static void storeOrder(Order order) {
+        Order old = storedOrders.get(order.orderId, 0);
+        if (old != null && old.orderDay != order.orderDay) {
+            storedDates.delete(old.orderDay, old.orderId);
+        }
+        storedOrders.put(order.orderId, 0, order);
+        storedDates.put(order.orderDay, order.orderId, Boolean.TRUE);
+    }
+
+    // Streams orders from a CSV file straight into fresh indexes and links them to their customers,
+    // without an intermediate list. Customers must be loaded first. Returns the number of records read.
+    public static int loadOrders(String file) {
+        return loadOrders(file, null);
+    }
+
+    // Same, with the file parsed in parallel chunks by loader (sequentially when it is null).
+    public static int loadOrders(String file, ParallelCSVLoader loader) {
+        orders = indexKind.create();
+        dateIndex = new SecondaryIndex<>();
+        SimpleCSVReader.RecordSink<Order> sink = batch -> {
+            for (Order o : batch) {
+                index(o);
+            }
+        };
+        return (loader != null) ? loader.streamOrders(file, sink)
+                : SimpleCSVReader.streamOrders(file, sink, SimpleCSVReader.DEFAULT_BATCH);
+    }
+
     public static boolean cancelOrder(int orderId) {
-        Order order = findOrder(orderId);
-        if (order != null) {
-            order.setStatus("Cancelled");
-            System.out.println("Order #" + orderId + " is cancelled!");
-            return true;
+        if (!cancelOrder(orderId, true)) {
+            System.out.println("Order not found!");
+            return false;
         }
+        WriteAheadLog.awaitCommit();
 
-        System.out.println("Order not found!");
-        return false;
+        System.out.println("Order #" + orderId + " is cancelled!");
+        return true;
+    }
+
+    static synchronized boolean cancelOrder(int orderId, boolean log) {
+        if (!changeStatus(orderId, "Cancelled")) {
+            return false;
+        }
+        if (log) WriteAheadLog.logCancelOrder(orderId);
+        return true;
     }
 
     public static boolean updateOrderStatus(int orderId, String newStatus) {
-        Order order = findOrder(orderId);
-        if (order != null) {
-            order.setStatus(newStatus);
-            System.out.println("Order #" + orderId + " new status is " + newStatus);
-            return true;
+        if (!updateOrderStatus(orderId, newStatus, true)) {
+            System.out.println("Order not found!");
+            return false;
         }
+        WriteAheadLog.awaitCommit();
 
-        System.out.println("Order not found!");
-        return false;
+        System.out.println("Order #" + orderId + " new status is " + newStatus);
+        return true;
     }
 
-    // Assumes orderDate is stored in a lexicographically sortable format (e.g., YYYY-MM-DD).
+    static synchronized boolean updateOrderStatus(int orderId, String newStatus, boolean log) {
+        if (!changeStatus(orderId, newStatus)) {
+            return false;
+        }
+        if (log) WriteAheadLog.logUpdateOrderStatus(orderId, newStatus);
+        return true;
+    }
+
+    // Sets the status and, with on-disk storage, writes the order back to the store; false if the
+    // order does not exist.
+    private static boolean changeStatus(int orderId, String status) {
+        Order order = findOrder(orderId);
+        if (order == null) return false;
+        order.setStatus(status);
+        if (storedOrders != null) storedOrders.put(orderId, 0, order);
+        return true;
+    }
+
+    // Returns orders dated in [startDate, endDate] (YYYY-MM-DD, inclusive), oldest first
+    // (same-day orders by orderId). O(log n + k) on the date index.
     public static LinkedList<Order> getOrdersBetweenDates(String startDate, String endDate) {
         LinkedList<Order> results = new LinkedList<>();
+        if (storedOrders != null) {
+            IntList ids = storedDates.idsInRange(parseEpochDay(startDate), parseEpochDay(endDate));
+            for (int i = 0; i < ids.getSize(); i++) {
+                Order o = storedOrders.get(ids.get(i), 0);
+                if (o != null) results.insert(o);
+            }
+            return results;
+        }
         if (orders.empty()) return results;
 
-        LinkedList<Order> all = orders.inOrderTraversal();
-        if (all.empty()) return results;
+        for (SecondaryIndex.Cursor<Order> c = ordersBetweenDays(parseEpochDay(startDate), parseEpochDay(endDate));
+             c.valid(); c.findNext()) {
+            results.insert(c.retrieve());
+        }
 
-        all.findFirst();
-        while (true) {
-            Order o = all.retrieve();
+        return results;
+    }
 
-            if (o.getOrderDate().compareTo(startDate) >= 0 &&
-                o.getOrderDate().compareTo(endDate) <= 0) {
-                results.insert(o);
+    // Streams orders with orderDay in [startDay, endDay] without building a list.
+    // With on-disk storage the range is read into a temporary index first.
+    public static SecondaryIndex.Cursor<Order> ordersBetweenDays(int startDay, int endDay) {
+        if (storedOrders != null) {
+            SecondaryIndex<Order> range = new SecondaryIndex<>();
+            IntList ids = storedDates.idsInRange(startDay, endDay);
+            for (int i = 0; i < ids.getSize(); i++) {
+                Order o = storedOrders.get(ids.get(i), 0);
+                if (o != null) range.insert(o.orderDay, o.orderId, o);
             }
+            return range.rangeCursor(startDay, endDay);
+        }
+        return dateIndex.rangeCursor(startDay, endDay);
+    }
+
+    public static int countOrdersBetweenDates(String startDate, String endDate) {
+        if (storedOrders != null)
+            return storedDates.countInRange(parseEpochDay(startDate), parseEpochDay(endDate));
+        return dateIndex.countInRange(parseEpochDay(startDate), parseEpochDay(endDate));
+    }
 
-            if (all.last()) break;
-            all.findNext();
+    // Binary form of an order in the on-disk store.
+    private static final LSMTree.Codec<Order> CODEC = new LSMTree.Codec<Order>() {
+        public byte[] encode(Order o) {
+            byte[] date = o.orderDate.getBytes(StandardCharsets.UTF_8);
+            byte[] status = o.status == null ? null : o.status.getBytes(StandardCharsets.UTF_8);
+            int k = o.items == null ? 0 : o.items.getSize();
+            ByteBuffer out = ByteBuffer.allocate(32 + 4 * k + date.length + (status == null ? 0 : status.length));
+            out.putInt(o.orderId).putInt(o.customerId).putDouble(o.totalPrice).putInt(o.orderDay);
+            putBytes(out, date);
+            putBytes(out, status);
+            out.putInt(k);
+            for (int i = 0; i < k; i++) {
+                out.putInt(o.items.get(i));
+            }
+            return out.array();
         }
 
-        return results;
+        public Order decode(ByteBuffer in) {
+            int orderId = in.getInt();
+            int customerId = in.getInt();
+            double totalPrice = in.getDouble();
+            int orderDay = in.getInt();
+            String orderDate = getString(in);
+            String status = getString(in);
+            int k = in.getInt();
+            IntList items = new IntList(k);
+            for (int i = 0; i < k; i++) {
+                items.add(in.getInt());
+            }
+            return new Order(orderId, customerId, items, totalPrice, orderDate, orderDay, status);
+        }
+    };
+
+    // The date index only needs its (orderDay, orderId) keys.
+    private static final LSMTree.Codec<Boolean> DATE_CODEC = new LSMTree.Codec<Boolean>() {
+        public byte[] encode(Boolean value) {
+            return new byte[0];
+        }
+
+        public Boolean decode(ByteBuffer in) {
+            return Boolean.TRUE;
+        }
+    };
+
+    private static void putBytes(ByteBuffer out, byte[] b) {
+        out.putInt(b == null ? -1 : b.length);
+        if (b != null) out.put(b);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) return null;
+        byte[] b = new byte[len];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
     }
 
     public String toString() {
@@ -0,0 +1,80 @@
+package datastructures.avl;
+
+import java.util.function.ToIntFunction;
+
+// Ordered map from int keys to values: the operations Product, Customer and Order need from their
+// primary index. AVL, ConcurrentAVL, PersistentAVL and BPlusTree implement it; Kind names them so
+// each store can choose its backing structure (see e.g. Product.setIndexKind).
+public interface OrderedIndex<T> {
+
+    // Forward cursor in key order; must not be used across inserts and deletes, except on a
+    // PersistentAVL, whose cursors read a fixed version, or a ConcurrentAVL, whose cursors are
+    // weakly consistent.
+    interface Cursor<T> {
+        boolean valid();
+
+        int key();
+
+        T retrieve();
+
+        void findNext();
+    }
+
+    enum Kind {
+        AVL_TREE,
+        CONCURRENT_AVL_TREE,    // AVL behind a StampedLock: lookups and range reads from any thread
+        PERSISTENT_AVL_TREE,    // immutable nodes: O(1) snapshots, readers never block
+        BPLUS_TREE;             // wide nodes and linked leaves: shallow lookups, sequential scans
+
+        public <T> OrderedIndex<T> create() {
+            switch (this) {
+                case AVL_TREE: return new AVL<>();
+                case CONCURRENT_AVL_TREE: return new ConcurrentAVL<>();
+                case PERSISTENT_AVL_TREE: return new PersistentAVL<>();
+                default: return new BPlusTree<>();
+            }
+        }
+
+        // Bulk-loads the list; linear when it is already sorted by key, first duplicate wins.
+        public <T> OrderedIndex<T> buildFromSorted(LinkedList<T> list, ToIntFunction<T> keyOf) {
+            switch (this) {
+                case AVL_TREE: return AVL.buildFromSorted(list, keyOf);
+                case CONCURRENT_AVL_TREE: return ConcurrentAVL.buildFromSorted(list, keyOf);
+                case PERSISTENT_AVL_TREE: return PersistentAVL.buildFromSorted(list, keyOf);
+                default: return BPlusTree.buildFromSorted(list, keyOf);
+            }
+        }
+    }
+
+    boolean empty();
+
+    int getSize();
+
+    T search(int key);
+
+    boolean contains(int key);
+
+    // Adds (key, value); returns false and leaves the tree unchanged if key already exists.
+    boolean insert(int key, T value);
+
+    boolean delete(int key);
+
+    T findMin();
+
+    T findMax();
+
+    // Returns all values with keys in [minKey, maxKey] (inclusive), in key order.
+    LinkedList<T> rangeQuery(int minKey, int maxKey);
+
+    LinkedList<T> inOrderTraversal();
+
+    ChunkedList<T> inOrderChunked();
+
+    // Returns up to count values starting at the given 0-based position, in key order.
+    LinkedList<T> page(int offset, int count);
+
+    Cursor<T> cursor();
+
+    // Cursor over the keys in [minKey, maxKey] (inclusive).
+    Cursor<T> rangeCursor(int minKey, int maxKey);
+}
@@ -0,0 +1,258 @@
+package datastructures.avl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Parallel CSV loader: memory-maps the file, cuts it into chunks at record boundaries (by the
+// tokenizer's quoting rules) and parses the chunks concurrently on a fork-join pool. The stream*
+// methods hand each parsed chunk to a sink in file order while later chunks are still being parsed, keeping at most one chunk per
+// worker (plus the one being consumed) in memory; the entity load methods (e.g.
+// Product.loadProducts(file, loader)) index through them. The read* methods collect everything into
+// a list identical to SimpleCSVReader's.
+public class ParallelCSVLoader {
+
+    private static final long MIN_CHUNK = 1L << 20;    // below this, splitting costs more than it saves
+    private static final long MAX_CHUNK = 64L << 20;
+
+    private final ForkJoinPool pool;
+
+    public ParallelCSVLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelCSVLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public int streamProducts(String file, SimpleCSVReader.RecordSink<Product> sink) {
+        return stream(file, SimpleCSVReader::parseProduct, sink, "products");
+    }
+
+    public int streamCustomers(String file, SimpleCSVReader.RecordSink<Customer> sink) {
+        return stream(file, SimpleCSVReader::parseCustomer, sink, "customers");
+    }
+
+    public int streamOrders(String file, SimpleCSVReader.RecordSink<Order> sink) {
+        return stream(file, SimpleCSVReader::parseOrder, sink, "orders");
+    }
+
+    public int streamReviews(String file, SimpleCSVReader.RecordSink<Review> sink) {
+        return stream(file, SimpleCSVReader::parseReview, sink, "reviews");
+    }
+
+    public LinkedList<Product> readProducts(String file) {
+        return read(file, SimpleCSVReader::parseProduct, "products");
+    }
+
+    public LinkedList<Customer> readCustomers(String file) {
+        return read(file, SimpleCSVReader::parseCustomer, "customers");
+    }
+
+    public LinkedList<Order> readOrders(String file) {
+        return read(file, SimpleCSVReader::parseOrder, "orders");
+    }
+
+    public LinkedList<Review> readReviews(String file) {
+        return read(file, SimpleCSVReader::parseReview, "reviews");
+    }
+
+    // Same error handling as SimpleCSVReader.read: a failure is printed and the records read before
+    // it are returned.
+    <T> LinkedList<T> read(String file, SimpleCSVReader.RecordParser<T> parser, String what) {
+        LinkedList<T> list = new LinkedList<>();
+        try {
+            stream(file, parser, list::concat, what);
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
+        return list;
+    }
+
+    // Parses the chunks in parallel and passes each one to the sink in file order; returns the
+    // number of records read. Same contract as SimpleCSVReader.stream: UncheckedIOException if the
+    // file cannot be read, IllegalArgumentException if a record cannot be parsed (after the chunks
+    // before it were delivered), and sink exceptions propagate unchanged.
+    <T> int stream(String file, SimpleCSVReader.RecordParser<T> parser, SimpleCSVReader.RecordSink<T> sink,
+                   String what) {
+        int count = 0;
+        LinkedList<ForkJoinTask<LinkedList<T>>> inFlight = new LinkedList<>();
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long[] bounds = recordBoundaries(ch);
+            int chunks = bounds.length - 1;
+            int window = pool.getParallelism() + 1;
+
+            int submitted = 0;
+            while (submitted < chunks || !inFlight.empty()) {
+                while (submitted < chunks && inFlight.getSize() < window) {
+                    final long from = bounds[submitted], to = bounds[submitted + 1];
+                    final boolean skipHeader = (submitted == 0);
+                    inFlight.append(pool.submit(() -> parseChunk(ch, from, to, parser, skipHeader)));
+                    submitted++;
+                }
+
+                inFlight.findFirst();
+                ForkJoinTask<LinkedList<T>> next = inFlight.retrieve();
+                inFlight.remove();
+                LinkedList<T> records;
+                try {
+                    records = join(next);
+                } catch (RuntimeException e) {
+                    // join() may rethrow a copy of the task's exception that wraps the original.
+                    Throwable t = (e.getCause() != null && e.getCause().getClass() == e.getClass()) ? e.getCause() : e;
+                    throw new IllegalArgumentException("Error reading " + what + ": " + t.getMessage(), t);
+                }
+                count += records.getSize();
+                if (!records.empty())
+                    sink.accept(records);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading " + what + ": " + e.getMessage(), e);
+        } finally {
+            for (ForkJoinTask<LinkedList<T>> t : inFlight) {
+                t.cancel(true);
+            }
+        }
+        return count;
+    }
+
+    // Returns chunk offsets b[0] = 0 < ... < b[k] = size, each b[i] the start of a record.
+    // Whether a line break ends a record depends on the tokenizer state before it, which a quote
+    // count cannot tell (a '"' inside an unquoted field is a literal). So each slice first works
+    // out, in parallel, the state it ends in for every state it might start in; chaining those
+    // from the start of the file gives the exact state at each cut.
+    private long[] recordBoundaries(FileChannel ch) throws IOException {
+        long size = ch.size();
+        long chunk = size / Math.max(1, pool.getParallelism() * 4L);
+        chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, chunk));
+        int slices = (int) Math.max(1, (size + chunk - 1) / chunk);
+
+        if (slices == 1) {
+            return new long[] { 0, size };
+        }
+
+        LinkedList<ForkJoinTask<int[]>> exits = new LinkedList<>();
+        for (int i = 0; i < slices; i++) {
+            final long from = i * chunk, to = Math.min(size, from + chunk);
+            exits.append(pool.submit(() -> exitStates(ch, from, to)));
+        }
+
+        long[] bounds = new long[slices + 1];
+        int n = 1;
+        exits.findFirst();
+        int state = join(exits.retrieve())[CSVTokenizer.START];
+        for (int i = 1; i < slices; i++) {
+            long b = nextRecordStart(ch, i * chunk, state, size);
+            if (b > bounds[n - 1] && b < size)
+                bounds[n++] = b;
+            exits.findNext();
+            state = join(exits.retrieve())[state];
+        }
+        bounds[n++] = size;
+
+        long[] result = new long[n];
+        System.arraycopy(bounds, 0, result, 0, n);
+        return result;
+    }
+
+    // join() rethrows a task's IOException wrapped in a RuntimeException; unwrap it for the caller.
+    private static <V> V join(ForkJoinTask<V> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    // exit[s] is the tokenizer state at the end of [from, to) when it starts in state s. The runs
+    // from all states are stepped together until they agree, which usually takes a line or two;
+    // from there on one run stands for all of them. Bytes of multi-byte chars are never ASCII, so
+    // stepping bytes gives the same states as stepping chars.
+    private static int[] exitStates(FileChannel ch, long from, long to) throws IOException {
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int[] exit = new int[CSVTokenizer.STATES];
+        for (int s = 0; s < exit.length; s++) exit[s] = s;
+
+        int i = 0, len = buf.limit();
+        boolean merged = false;
+        for (; i < len && !merged; i++) {
+            int c = buf.get(i);
+            merged = true;
+            for (int s = 0; s < exit.length; s++) {
+                exit[s] = CSVTokenizer.next(exit[s], c);
+                merged &= exit[s] == exit[0];
+            }
+        }
+        int state = exit[0];
+        for (; i < len; i++) {
+            state = CSVTokenizer.next(state, buf.get(i));
+        }
+        for (int s = 0; s < exit.length; s++) exit[s] = state;
+        return exit;
+    }
+
+    // First offset after pos that starts a record, given the tokenizer state at pos. A record ends
+    // at '\n', '\r' or "\r\n" outside a quoted field, as in CSVTokenizer.
+    private static long nextRecordStart(FileChannel ch, long pos, int state, long size)
+            throws IOException {
+        while (pos < size) {
+            long len = Math.min(size - pos, MAX_CHUNK);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            for (int i = 0; i < len; i++) {
+                byte b = buf.get(i);
+                if ((b == '\n' || b == '\r') && state != CSVTokenizer.QUOTED) {
+                    long end = pos + i + 1;
+                    if (b == '\r' && end < size && byteAt(ch, buf, pos, len, end) == '\n')
+                        end++;
+                    return end;
+                }
+                state = CSVTokenizer.next(state, b);
+            }
+            pos += len;
+        }
+        return size;
+    }
+
+    // The byte at offset at, from buf (which maps [pos, pos + len)) when it covers it.
+    private static byte byteAt(FileChannel ch, MappedByteBuffer buf, long pos, long len, long at)
+            throws IOException {
+        if (at < pos + len)
+            return buf.get((int) (at - pos));
+        return ch.map(FileChannel.MapMode.READ_ONLY, at, 1).get(0);
+    }
+
+    // Decoded with the same default charset FileReader uses in SimpleCSVReader; chunks start right
+    // after a line break, so they never split a multi-byte sequence of an ASCII-compatible charset.
+    private static <T> LinkedList<T> parseChunk(FileChannel ch, long from, long to,
+                                                SimpleCSVReader.RecordParser<T> parser, boolean skipHeader)
+            throws IOException {
+        LinkedList<T> list = new LinkedList<>();
+        if (to <= from) return list;
+
+        MappedByteBuffer bytes = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        CharBuffer chars = Charset.defaultCharset().decode(bytes);
+
+        int start = chars.arrayOffset() + chars.position();
+        CSVTokenizer csv = new CSVTokenizer(chars.array(), start, start + chars.remaining());
+        if (skipHeader) csv.nextRecord();
+        for (int row = 1; csv.nextRecord(); row++) {
+            T record;
+            try {
+                record = parser.parse(csv);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("record " + row + " of the chunk at byte " + from + ": " + e, e);
+            }
+            if (record != null) list.insert(record);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,340 @@
+package datastructures.avl;
+
+import java.util.function.ToIntFunction;
+
+// Persistent (immutable-node) AVL tree. insert/delete copy only the O(log n) nodes on the search
+// path and share everything else, so snapshot() is O(1) and a snapshot never changes afterwards.
+// Writers are serialized on this object; readers just pick up the latest published root.
+// Only the tree structure is versioned: the stored values themselves are shared, not copied.
+public class PersistentAVL<T> implements OrderedIndex<T> {
+
+    private static final class PNode<T> {
+        final int key;
+        final T data;
+        final PNode<T> left, right;
+        final int height;
+        final int size;
+
+        PNode(int key, T data, PNode<T> left, PNode<T> right) {
+            this.key = key;
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            this.size = 1 + size(left) + size(right);
+        }
+    }
+
+    private volatile PNode<T> root;
+
+    public PersistentAVL() {
+        root = null;
+    }
+
+    private PersistentAVL(PNode<T> root) {
+        this.root = root;
+    }
+
+    // Bulk-loads a balanced tree in O(n) when the list is sorted by key (see AVL.buildFromSorted).
+    public static <T> PersistentAVL<T> buildFromSorted(LinkedList<T> list, ToIntFunction<T> keyOf) {
+        if (list == null || list.empty()) return new PersistentAVL<>();
+
+        int n = list.getSize();
+        int[] keys = new int[n];
+        @SuppressWarnings("unchecked")
+        T[] values = (T[]) new Object[n];
+
+        list.findFirst();
+        for (int i = 0; i < n; i++) {
+            values[i] = list.retrieve();
+            keys[i] = keyOf.applyAsInt(values[i]);
+            if (!list.last()) list.findNext();
+        }
+
+        n = AVL.sortUnique(keys, values, n);
+        return new PersistentAVL<>(buildBalanced(keys, values, 0, n - 1));
+    }
+
+    private static <T> PNode<T> buildBalanced(int[] keys, T[] values, int lo, int hi) {
+        if (lo > hi) return null;
+        int mid = (lo + hi) >>> 1;
+        return new PNode<>(keys[mid], values[mid],
+                buildBalanced(keys, values, lo, mid - 1),
+                buildBalanced(keys, values, mid + 1, hi));
+    }
+
+    // Returns a frozen view of the current version in O(1). Later writes to this tree do not
+    // affect the snapshot, and writes to the snapshot do not affect this tree.
+    public PersistentAVL<T> snapshot() {
+        return new PersistentAVL<>(root);
+    }
+
+    public boolean empty() {
+        return root == null;
+    }
+
+    public int getSize() {
+        return size(root);
+    }
+
+    public T search(int key) {
+        PNode<T> p = root;
+        while (p != null) {
+            if (key == p.key)
+                return p.data;
+            p = (key < p.key) ? p.left : p.right;
+        }
+        return null;
+    }
+
+    public boolean contains(int key) {
+        PNode<T> p = root;
+        while (p != null) {
+            if (key == p.key)
+                return true;
+            p = (key < p.key) ? p.left : p.right;
+        }
+        return false;
+    }
+
+    // Returns false (and publishes nothing) if the key already exists.
+    public synchronized boolean insert(int key, T value) {
+        PNode<T> oldRoot = root;
+        PNode<T> newRoot = insertRecursive(oldRoot, key, value);
+        if (newRoot == oldRoot) return false;
+        root = newRoot;
+        return true;
+    }
+
+    public synchronized boolean delete(int key) {
+        PNode<T> oldRoot = root;
+        PNode<T> newRoot = removeRecursive(oldRoot, key);
+        if (newRoot == oldRoot) return false;
+        root = newRoot;
+        return true;
+    }
+
+    // Publishes a version where key maps to value; returns false if the key is absent.
+    public synchronized boolean replace(int key, T value) {
+        PNode<T> oldRoot = root;
+        PNode<T> newRoot = replaceRecursive(oldRoot, key, value);
+        if (newRoot == oldRoot) return false;
+        root = newRoot;
+        return true;
+    }
+
+    public T findMin() {
+        PNode<T> p = root;
+        if (p == null) return null;
+        while (p.left != null) p = p.left;
+        return p.data;
+    }
+
+    public T findMax() {
+        PNode<T> p = root;
+        if (p == null) return null;
+        while (p.right != null) p = p.right;
+        return p.data;
+    }
+
+    // Streams the version current at the time of the call, in ascending key order.
+    public Cursor<T> cursor() {
+        return new Cursor<>(root, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    // Streams keys in [minKey, maxKey] (inclusive) of the version current at the time of the call.
+    public Cursor<T> rangeCursor(int minKey, int maxKey) {
+        return new Cursor<>(root, minKey, maxKey);
+    }
+
+    public LinkedList<T> inOrderTraversal() {
+        LinkedList<T> result = new LinkedList<>();
+        for (Cursor<T> c = cursor(); c.valid(); c.findNext())
+            result.insert(c.retrieve());
+        return result;
+    }
+
+    // Same as inOrderTraversal() but into a chunked list (no node per element) for large scans.
+    public ChunkedList<T> inOrderChunked() {
+        ChunkedList<T> result = new ChunkedList<>();
+        for (Cursor<T> c = cursor(); c.valid(); c.findNext())
+            result.append(c.retrieve());
+        return result;
+    }
+
+    public LinkedList<T> rangeQuery(int minKey, int maxKey) {
+        LinkedList<T> result = new LinkedList<>();
+        for (Cursor<T> c = rangeCursor(minKey, maxKey); c.valid(); c.findNext())
+            result.insert(c.retrieve());
+        return result;
+    }
+
+    // Returns up to count values starting at the given 0-based position, in key order.
+    public LinkedList<T> page(int offset, int count) {
+        LinkedList<T> result = new LinkedList<>();
+        PNode<T> r = root;
+        if (offset < 0) offset = 0;
+        if (count <= 0 || offset >= size(r)) return result;
+        pageRecursive(r, offset, (int) Math.min((long) offset + count, size(r)), 0, result);
+        return result;
+    }
+
+    private static <T> void pageRecursive(PNode<T> node, int from, int to, int base, LinkedList<T> result) {
+        if (node == null) return;
+
+        int pos = base + size(node.left);
+
+        if (from < pos)
+            pageRecursive(node.left, from, to, base, result);
+
+        if (pos >= from && pos < to)
+            result.insert(node.data);
+
+        if (pos + 1 < to)
+            pageRecursive(node.right, from, to, pos + 1, result);
+    }
+
+    private static int height(PNode<?> node) {
+        return (node == null) ? 0 : node.height;
+    }
+
+    private static int size(PNode<?> node) {
+        return (node == null) ? 0 : node.size;
+    }
+
+    // Builds the node (key, data, l, r), applying a single or double rotation if l and r differ
+    // in height by two. All nodes created here are new; l and r themselves are never modified.
+    private static <T> PNode<T> balance(int key, T data, PNode<T> l, PNode<T> r) {
+        int hl = height(l), hr = height(r);
+
+        if (hl > hr + 1) {
+            if (height(l.left) >= height(l.right))
+                return new PNode<>(l.key, l.data, l.left, new PNode<>(key, data, l.right, r));
+            PNode<T> lr = l.right;
+            return new PNode<>(lr.key, lr.data,
+                    new PNode<>(l.key, l.data, l.left, lr.left),
+                    new PNode<>(key, data, lr.right, r));
+        }
+
+        if (hr > hl + 1) {
+            if (height(r.right) >= height(r.left))
+                return new PNode<>(r.key, r.data, new PNode<>(key, data, l, r.left), r.right);
+            PNode<T> rl = r.left;
+            return new PNode<>(rl.key, rl.data,
+                    new PNode<>(key, data, l, rl.left),
+                    new PNode<>(r.key, r.data, rl.right, r.right));
+        }
+
+        return new PNode<>(key, data, l, r);
+    }
+
+    // Returns node itself (same reference) when the key already exists.
+    private static <T> PNode<T> insertRecursive(PNode<T> node, int key, T value) {
+        if (node == null)
+            return new PNode<>(key, value, null, null);
+
+        if (key < node.key) {
+            PNode<T> l = insertRecursive(node.left, key, value);
+            return (l == node.left) ? node : balance(node.key, node.data, l, node.right);
+        } else if (key > node.key) {
+            PNode<T> r = insertRecursive(node.right, key, value);
+            return (r == node.right) ? node : balance(node.key, node.data, node.left, r);
+        }
+        return node;
+    }
+
+    // Returns node itself (same reference) when the key is absent.
+    private static <T> PNode<T> removeRecursive(PNode<T> node, int key) {
+        if (node == null)
+            return null;
+
+        if (key < node.key) {
+            PNode<T> l = removeRecursive(node.left, key);
+            return (l == node.left) ? node : balance(node.key, node.data, l, node.right);
+        } else if (key > node.key) {
+            PNode<T> r = removeRecursive(node.right, key);
+            return (r == node.right) ? node : balance(node.key, node.data, node.left, r);
+        }
+
+        if (node.left == null) return node.right;
+        if (node.right == null) return node.left;
+
+        PNode<T> successor = node.right;
+        while (successor.left != null) successor = successor.left;
+        return balance(successor.key, successor.data, node.left, removeMin(node.right));
+    }
+
+    private static <T> PNode<T> removeMin(PNode<T> node) {
+        if (node.left == null) return node.right;
+        return balance(node.key, node.data, removeMin(node.left), node.right);
+    }
+
+    private static <T> PNode<T> replaceRecursive(PNode<T> node, int key, T value) {
+        if (node == null)
+            return null;
+
+        if (key < node.key) {
+            PNode<T> l = replaceRecursive(node.left, key, value);
+            return (l == node.left) ? node : new PNode<>(node.key, node.data, l, node.right);
+        } else if (key > node.key) {
+            PNode<T> r = replaceRecursive(node.right, key, value);
+            return (r == node.right) ? node : new PNode<>(node.key, node.data, node.left, r);
+        }
+        return new PNode<>(key, value, node.left, node.right);
+    }
+
+    // In-order cursor over one fixed version. Immutable nodes have no parent links, so the
+    // pending ancestors are kept on a small fixed array stack (AVL depth is bounded by ~1.44 log2 n).
+    public static class Cursor<T> implements OrderedIndex.Cursor<T> {
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final PNode<T>[] stack = (PNode<T>[]) new PNode[64];
+        private int top;
+        private PNode<T> current;
+        private final int maxKey;
+
+        private Cursor(PNode<T> root, int minKey, int maxKey) {
+            this.maxKey = maxKey;
+            top = 0;
+
+            // Push the path to the first key >= minKey, keeping only nodes still to be visited.
+            PNode<T> p = root;
+            while (p != null) {
+                if (p.key >= minKey) {
+                    stack[top++] = p;
+                    p = p.left;
+                } else {
+                    p = p.right;
+                }
+            }
+            findNext();
+        }
+
+        public boolean valid() {
+            return current != null;
+        }
+
+        public int key() {
+            return current.key;
+        }
+
+        public T retrieve() {
+            return current.data;
+        }
+
+        public void findNext() {
+            if (top == 0) {
+                current = null;
+                return;
+            }
+            current = stack[--top];
+            for (PNode<T> p = current.right; p != null; p = p.left)
+                stack[top++] = p;
+
+            if (current.key > maxKey) {
+                current = null;
+                top = 0;
+            }
+        }
+    }
+}
@@ -1,19 +1,42 @@
 package datastructures.avl;
 
+import java.util.Iterator;
+import java.util.concurrent.locks.StampedLock;
+
 public class Product {
 
     private int productId;
     private String name;
+    private String searchName;  // lowercased name, computed once for productSearch
     private double price;
     private int stock;
     private LinkedList<Review> reviews;
+    private long ratingSum;     // running totals over reviews, so the average is O(1)
+    private int ratingCount;
+
+    // Shared in-memory index of products by productId for fast lookup; see setIndexKind. The
+    // default ConcurrentAVL lets findProduct and full scans run from any thread without a lock.
+    private static OrderedIndex.Kind indexKind = OrderedIndex.Kind.CONCURRENT_AVL_TREE;
+    private static OrderedIndex<Product> products = indexKind.create();
+
+    // Secondary index on price (in cents), ties ordered by productId; kept in sync with products.
+    private static SecondaryIndex<Product> priceIndex = new SecondaryIndex<>();
+
+    // Secondary index on average rating (scaled to millionths), ties ordered by productId.
+    private static SecondaryIndex<Product> ratingIndex = new SecondaryIndex<>();
 
-    // Shared in-memory index of products by productId for fast lookup.
-    private static AVL<Product> products = new AVL<>();
+    // Trigram index over lowercased product names, used by productSearch.
+    private static TrigramIndex<Product> nameIndex = new TrigramIndex<>();
+
+    // Guards the three secondary indexes: everything that changes them (the mutators, setName,
+    // setPrice, adjustRating, the bulk loaders) holds the write lock, which also serializes writers
+    // of products; the queries that read them hold the read lock, so they run side by side.
+    private static final StampedLock lock = new StampedLock();
 
     public Product(int productId, String name, double price, int stock) {
         this.productId = productId;
         this.name = name;
+        this.searchName = name.toLowerCase();
         this.price = price;
         this.stock = stock;
         this.reviews = new LinkedList<>();
@@ -26,31 +49,135 @@ public class Product {
     public LinkedList<Review> getReviews() { return reviews; }
 
     public void setProductId(int productId) { this.productId = productId; }
-    public void setName(String name) { this.name = name; }
-    public void setPrice(double price) { this.price = price; }
+    public void setName(String name) {
+        long stamp = lock.writeLock();
+        try {
+            String lower = name.toLowerCase();
+            if (products.search(productId) == this) {
+                nameIndex.remove(productId, searchName);
+                nameIndex.add(productId, lower, this);
+            }
+            this.name = name;
+            this.searchName = lower;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    public void setPrice(double price) {
+        long stamp = lock.writeLock();
+        try {
+            reprice(price);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // setPrice for callers that already hold the write lock.
+    private void reprice(double price) {
+        if (products.search(productId) == this) {
+            priceIndex.move(priceKey(this.price), priceKey(price), productId, this);
+        }
+        this.price = price;
+    }
     public void setStock(int stock) { this.stock = stock; }
-    public void setReviews(LinkedList<Review> reviews) { this.reviews = reviews; }
+    public void setReviews(LinkedList<Review> reviews) {
+        this.reviews = reviews;
 
-    // Returns products ordered by productId (AVL in-order traversal).
+        long sum = 0;
+        int count = 0;
+        if (reviews != null && !reviews.empty()) {
+            reviews.findFirst();
+            while (true) {
+                sum += reviews.retrieve().getRating();
+                count++;
+                if (reviews.last()) break;
+                reviews.findNext();
+            }
+        }
+        adjustRating(sum - ratingSum, count - ratingCount);
+    }
+
+    // Returns products ordered by productId (in-order traversal of the index).
     public static LinkedList<Product> getAllProducts() {
         return products.inOrderTraversal();
     }
 
-    // Rebuilds the AVL index from an existing list (used after loading persisted data).
-    public static void setAllProducts(LinkedList<Product> list) {
-        products = new AVL<>();
+    // Same products as getAllProducts(), stored in array chunks for large batch scans.
+    public static ChunkedList<Product> getAllProductsChunked() {
+        return products.inOrderChunked();
+    }
 
-        if (list == null || list.empty()) {
-            return;
+    // Returns up to count products starting at the given position in productId order.
+    public static LinkedList<Product> getProductsPage(int offset, int count) {
+        return products.page(offset, count);
+    }
+
+    public static int getProductCount() {
+        return products.getSize();
+    }
+
+    // Switches the productId index to another structure, moving the current products into it.
+    // Only CONCURRENT_AVL_TREE and PERSISTENT_AVL_TREE can be searched while a writer runs.
+    public static void setIndexKind(OrderedIndex.Kind kind) {
+        long stamp = lock.writeLock();
+        try {
+            products = kind.buildFromSorted(products.inOrderTraversal(), Product::getProductId);
+            indexKind = kind;
+        } finally {
+            lock.unlockWrite(stamp);
         }
+    }
 
-        list.findFirst();
-        while (true) {
-            Product p = list.retrieve();
-            products.insert(p.getProductId(), p);
+    public static OrderedIndex.Kind getIndexKind() {
+        return indexKind;
+    }
+
+    // Rebuilds the productId index from an existing list (used after loading persisted data).
+    public static void setAllProducts(LinkedList<Product> list) {
+        long stamp = lock.writeLock();
+        try {
+            // Bulk-load: linear when the list is already sorted by productId.
+            products = indexKind.buildFromSorted(list, Product::getProductId);
+
+            priceIndex = new SecondaryIndex<>();
+            ratingIndex = new SecondaryIndex<>();
+            nameIndex = new TrigramIndex<>();
+            for (OrderedIndex.Cursor<Product> c = products.cursor(); c.valid(); c.findNext()) {
+                Product p = c.retrieve();
+                priceIndex.insert(priceKey(p.price), p.productId, p);
+                ratingIndex.insert(ratingKey(p.getAverageRating()), p.productId, p);
+                nameIndex.add(p.productId, p.searchName, p);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Price rounded to whole cents, the key of the price index.
+    private static int priceKey(double price) {
+        return (int) Math.round(price * 100);
+    }
+
+    // Average rating in millionths, the key of the rating index.
+    private static int ratingKey(double averageRating) {
+        return (int) Math.round(averageRating * 1_000_000);
+    }
+
+    // Applies a change to the running rating totals and re-files the product in the rating index.
+    void adjustRating(long sumDelta, int countDelta) {
+        if (sumDelta == 0 && countDelta == 0) return;
 
-            if (list.last()) break;
-            list.findNext();
+        long stamp = lock.writeLock();
+        try {
+            int oldKey = ratingKey(getAverageRating());
+            ratingSum += sumDelta;
+            ratingCount += countDelta;
+
+            if (products.search(productId) == this) {
+                ratingIndex.move(oldKey, ratingKey(getAverageRating()), productId, this);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -59,153 +186,301 @@ public class Product {
     }
 
     public static boolean addProduct(Product product) {
-        if (products.search(product.getProductId()) != null) {
+        if (!addProduct(product, true)) {
             System.out.println("Product is found!");
             return false;
         }
-        return products.insert(product.getProductId(), product);
+        WriteAheadLog.awaitCommit();
+        return true;
+    }
+
+    // Applies addProduct under the write lock and logs it only when log is set; replay passes
+    // false. The other mutators below are split the same way.
+    static boolean addProduct(Product product, boolean log) {
+        long stamp = lock.writeLock();
+        try {
+            if (!index(product)) {
+                return false;
+            }
+            if (log) WriteAheadLog.logAddProduct(product);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Adds the product to every index; false if the productId is already taken. The caller holds
+    // the write lock.
+    static boolean index(Product product) {
+        // insert() reports an existing key itself, so the index is walked only once.
+        if (!products.insert(product.getProductId(), product)) {
+            return false;
+        }
+        priceIndex.insert(priceKey(product.price), product.productId, product);
+        ratingIndex.insert(ratingKey(product.getAverageRating()), product.productId, product);
+        nameIndex.add(product.productId, product.searchName, product);
+        return true;
+    }
+
+    // Streams products from a CSV file straight into fresh indexes, without an intermediate list.
+    // Returns the number of records read; a repeated productId keeps its first record.
+    public static int loadProducts(String file) {
+        return loadProducts(file, null);
+    }
+
+    // Same, with the file parsed in parallel chunks by loader (sequentially when it is null).
+    public static int loadProducts(String file, ParallelCSVLoader loader) {
+        long stamp = lock.writeLock();
+        try {
+            products = indexKind.create();
+            priceIndex = new SecondaryIndex<>();
+            ratingIndex = new SecondaryIndex<>();
+            nameIndex = new TrigramIndex<>();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        SimpleCSVReader.RecordSink<Product> sink = batch -> {
+            long batchStamp = lock.writeLock();
+            try {
+                for (Product p : batch) {
+                    index(p);
+                }
+            } finally {
+                lock.unlockWrite(batchStamp);
+            }
+        };
+        return (loader != null) ? loader.streamProducts(file, sink)
+                : SimpleCSVReader.streamProducts(file, sink, SimpleCSVReader.DEFAULT_BATCH);
     }
 
     public static boolean deleteProduct(int productId) {
-        return products.delete(productId);
+        if (!deleteProduct(productId, true)) {
+            return false;
+        }
+        WriteAheadLog.awaitCommit();
+        return true;
+    }
+
+    static boolean deleteProduct(int productId, boolean log) {
+        long stamp = lock.writeLock();
+        try {
+            Product product = products.search(productId);
+            if (product == null) {
+                return false;
+            }
+            priceIndex.remove(priceKey(product.price), productId);
+            ratingIndex.remove(ratingKey(product.getAverageRating()), productId);
+            nameIndex.remove(productId, product.searchName);
+            products.delete(productId);
+            if (log) WriteAheadLog.logDeleteProduct(productId);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     public static boolean updatePrice(int productId, double newPrice) {
-        Product product = products.search(productId);
-        if (product != null) {
-            product.setPrice(newPrice);
+        if (!updatePrice(productId, newPrice, true)) {
+            return false;
+        }
+        WriteAheadLog.awaitCommit();
+        return true;
+    }
+
+    static boolean updatePrice(int productId, double newPrice, boolean log) {
+        long stamp = lock.writeLock();
+        try {
+            Product product = products.search(productId);
+            if (product == null) {
+                return false;
+            }
+            product.reprice(newPrice);   // also re-files the product in the price index
+            if (log) WriteAheadLog.logUpdatePrice(productId, newPrice);
             return true;
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        return false;
     }
 
     public static boolean updateStock(int productId, int newStock) {
-        Product product = products.search(productId);
-        if (product != null) {
+        if (!updateStock(productId, newStock, true)) {
+            return false;
+        }
+        WriteAheadLog.awaitCommit();
+        return true;
+    }
+
+    static boolean updateStock(int productId, int newStock, boolean log) {
+        long stamp = lock.writeLock();
+        try {
+            Product product = products.search(productId);
+            if (product == null) {
+                return false;
+            }
             product.setStock(newStock);
+            if (log) WriteAheadLog.logUpdateStock(productId, newStock);
             return true;
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        return false;
     }
 
-    // Case-insensitive substring search on product name.
+    // Case-insensitive substring search on product name. Results are ranked: names starting with
+    // the term first, then names with a word starting with it, then other matches; each group by
+    // productId. Terms of 3+ characters only verify the trigram index candidates; shorter terms scan.
     public static LinkedList<Product> productSearch(String searchTerm) {
         LinkedList<Product> results = new LinkedList<>();
         if (products.empty()) return results;
 
         String lowerSearch = searchTerm.toLowerCase();
 
-        LinkedList<Product> all = products.inOrderTraversal();
-        if (all.empty()) return results;
-
-        all.findFirst();
-        while (true) {
-            Product p = all.retrieve();
-            if (p.getName().toLowerCase().contains(lowerSearch)) {
-                results.insert(p);
+        LinkedList<Product> prefix = new LinkedList<>();
+        LinkedList<Product> wordStart = new LinkedList<>();
+        LinkedList<Product> inside = new LinkedList<>();
+
+        if (lowerSearch.length() >= 3) {
+            LinkedList<Product> candidates;
+            long stamp = lock.readLock();
+            try {
+                candidates = nameIndex.candidates(lowerSearch);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            if (!candidates.empty()) {
+                candidates.findFirst();
+                while (true) {
+                    rankMatch(candidates.retrieve(), lowerSearch, prefix, wordStart, inside);
+                    if (candidates.last()) break;
+                    candidates.findNext();
+                }
+            }
+        } else {
+            for (OrderedIndex.Cursor<Product> c = products.cursor(); c.valid(); c.findNext()) {
+                rankMatch(c.retrieve(), lowerSearch, prefix, wordStart, inside);
             }
-            if (all.last()) break;
-            all.findNext();
         }
 
+        appendAll(results, prefix);
+        appendAll(results, wordStart);
+        appendAll(results, inside);
         return results;
     }
 
-    public double getAverageRating() {
-        if (reviews.empty()) return 0.0;
+    // Files p into the group of its best match position, if its name contains the term at all.
+    private static void rankMatch(Product p, String lowerSearch, LinkedList<Product> prefix,
+                                  LinkedList<Product> wordStart, LinkedList<Product> inside) {
+        String s = p.searchName;
+        int at = s.indexOf(lowerSearch);
+        if (at < 0) return;
 
-        double sum = 0;
-        int count = 0;
+        if (at == 0) {
+            prefix.insert(p);
+            return;
+        }
+        while (at > 0) {
+            if (!Character.isLetterOrDigit(s.charAt(at - 1))) {
+                wordStart.insert(p);
+                return;
+            }
+            at = s.indexOf(lowerSearch, at + 1);
+        }
+        inside.insert(p);
+    }
 
-        reviews.findFirst();
+    private static void appendAll(LinkedList<Product> target, LinkedList<Product> source) {
+        if (source.empty()) return;
+        source.findFirst();
         while (true) {
-            Review review = reviews.retrieve();
-            sum += review.getRating();
-            count++;
-
-            if (reviews.last()) break;
-            reviews.findNext();
+            target.insert(source.retrieve());
+            if (source.last()) break;
+            source.findNext();
         }
-        return sum / count;
+    }
+
+    public double getAverageRating() {
+        if (ratingCount == 0) return 0.0;
+        return (double) ratingSum / ratingCount;
+    }
+
+    public int getRatingCount() {
+        return ratingCount;
     }
 
     public static LinkedList<Product> getOutOfStockProducts() {
         LinkedList<Product> outOfStock = new LinkedList<>();
         if (products.empty()) return outOfStock;
 
-        LinkedList<Product> all = products.inOrderTraversal();
-        if (all.empty()) return outOfStock;
-
-        all.findFirst();
-        while (true) {
-            Product p = all.retrieve();
+        for (OrderedIndex.Cursor<Product> c = products.cursor(); c.valid(); c.findNext()) {
+            Product p = c.retrieve();
             if (p.getStock() == 0) {
                 outOfStock.insert(p);
             }
-            if (all.last()) break;
-            all.findNext();
         }
         return outOfStock;
     }
 
     // Returns up to 3 products with the highest average rating (descending).
     public static LinkedList<Product> getTop3ByRating() {
-        LinkedList<Product> top3 = new LinkedList<>();
-        if (products.empty()) return top3;
-
-        LinkedList<Product> all = products.inOrderTraversal();
-        int size = all.getSize();
-        if (size == 0) return top3;
-
-        Product[] arr = new Product[size];
+        return getTopKByRating(3);
+    }
 
-        all.findFirst();
-        for (int i = 0; i < size; i++) {
-            arr[i] = all.retrieve();
-            if (!all.last()) all.findNext();
-        }
+    // Returns up to k products with the highest average rating, best first (ties by productId).
+    // Reads the head of the rating index: O(log n + k).
+    public static LinkedList<Product> getTopKByRating(int k) {
+        LinkedList<Product> top = new LinkedList<>();
 
-        // Manual sort kept explicit for assignment constraints.
-        for (int i = 0; i < size - 1; i++) {
-            for (int j = 0; j < size - i - 1; j++) {
-                if (arr[j].getAverageRating() < arr[j + 1].getAverageRating()) {
-                    Product temp = arr[j];
-                    arr[j] = arr[j + 1];
-                    arr[j + 1] = temp;
-                }
+        long stamp = lock.readLock();
+        try {
+            SecondaryIndex.Cursor<Product> c = ratingIndex.descendingKeysCursor();
+            for (int i = 0; i < k && c.valid(); i++, c.findNext()) {
+                top.insert(c.retrieve());
             }
+        } finally {
+            lock.unlockRead(stamp);
         }
-
-        int limit = Math.min(3, size);
-        for (int i = 0; i < limit; i++) {
-            top3.insert(arr[i]);
-        }
-
-        return top3;
+        return top;
     }
 
+    // Returns products priced in [minPrice, maxPrice], cheapest first (ties by productId).
+    // Runs in O(log n + k) on the price index; the exact double check handles sub-cent prices.
     public static LinkedList<Product> getProductsWithinPriceRange(double minPrice, double maxPrice) {
         LinkedList<Product> result = new LinkedList<>();
-        if (products.empty()) return result;
+        if (products.empty() || minPrice > maxPrice) return result;
 
-        LinkedList<Product> all = products.inOrderTraversal();
-        if (all.empty()) return result;
+        int minKey = (int) Math.max(Integer.MIN_VALUE, Math.floor(minPrice * 100));
+        int maxKey = (int) Math.min(Integer.MAX_VALUE, Math.ceil(maxPrice * 100));
 
-        all.findFirst();
-        while (true) {
-            Product p = all.retrieve();
-            if (p.price >= minPrice && p.price <= maxPrice) {
-                result.insert(p);
+        long stamp = lock.readLock();
+        try {
+            for (SecondaryIndex.Cursor<Product> c = priceIndex.rangeCursor(minKey, maxKey); c.valid(); c.findNext()) {
+                Product p = c.retrieve();
+                if (p.price >= minPrice && p.price <= maxPrice) {
+                    result.insert(p);
+                }
             }
-
-            if (all.last()) break;
-            all.findNext();
+        } finally {
+            lock.unlockRead(stamp);
         }
 
         return result;
     }
 
     public void addReview(Review review) {
-        this.reviews.insert(review);
+        this.reviews.append(review);
+        adjustRating(review.getRating(), 1);
+    }
+
+    // Detaches the review from this product (list and rating totals) in one pass over the list.
+    public boolean removeReview(int reviewId) {
+        Iterator<Review> it = reviews.iterator();
+        while (it.hasNext()) {
+            Review r = it.next();
+            if (r.getReviewId() == reviewId) {
+                it.remove();
+                adjustRating(-r.getRating(), -1);
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -8,8 +8,12 @@ public class Review {
     private int rating;
     private String comment;
 
-    // Central in-memory list of all reviews across the system.
-    private static LinkedList<Review> reviews = new LinkedList<>();
+    // Central in-memory index of all reviews by reviewId.
+    private static AVL<Review> reviews = new AVL<>();
+
+    // Posting indexes: reviews grouped by customerId / productId, each group ordered by reviewId.
+    private static SecondaryIndex<Review> byCustomer = new SecondaryIndex<>();
+    private static SecondaryIndex<Review> byProduct = new SecondaryIndex<>();
 
     public Review(int reviewId, int productId, int customerId, int rating, String comment) {
         this.reviewId = reviewId;
@@ -39,23 +43,64 @@ public class Review {
         return comment;
     }
 
+    // Returns all reviews ordered by reviewId.
     public static LinkedList<Review> getReviews() {
-        return reviews;
+        return reviews.inOrderTraversal();
+    }
+
+    public static Review findReview(int reviewId) {
+        return reviews.search(reviewId);
     }
 
+    // An indexed review is re-keyed in reviews, byCustomer and byProduct, so lookups by the new id
+    // find it; the new id must not belong to another indexed review.
     public void setReviewId(int reviewId) {
+        if (reviewId != this.reviewId && reviews.search(this.reviewId) == this) {
+            if (reviews.contains(reviewId))
+                throw new IllegalArgumentException("Review id " + reviewId + " is already taken");
+            reviews.delete(this.reviewId);
+            reviews.insert(reviewId, this);
+            byCustomer.remove(customerId, this.reviewId);
+            byCustomer.insert(customerId, reviewId, this);
+            byProduct.remove(productId, this.reviewId);
+            byProduct.insert(productId, reviewId, this);
+        }
         this.reviewId = reviewId;
     }
 
+    // An indexed review moves to the new product's posting list, review list and rating totals.
     public void setProductId(int productId) {
+        if (reviews.search(reviewId) == this && productId != this.productId) {
+            byProduct.move(this.productId, productId, reviewId, this);
+            Product old = Product.findProduct(this.productId);
+            if (old != null) {
+                old.removeReview(reviewId);
+            }
+            this.productId = productId;
+            Product p = Product.findProduct(productId);
+            if (p != null) {
+                p.addReview(this);
+            }
+            return;
+        }
         this.productId = productId;
     }
 
     public void setCustomerId(int customerId) {
+        if (reviews.search(reviewId) == this) {
+            byCustomer.move(this.customerId, customerId, reviewId, this);
+        }
         this.customerId = customerId;
     }
 
     public void setRating(int rating) {
+        // Indexed reviews are linked to their product, whose rating totals must follow.
+        if (reviews.search(reviewId) == this) {
+            Product p = Product.findProduct(productId);
+            if (p != null) {
+                p.adjustRating(rating - this.rating, 0);
+            }
+        }
         this.rating = rating;
     }
 
@@ -63,31 +108,29 @@ public class Review {
         this.comment = comment;
     }
 
-    // Rebuilds the global reviews list from persisted data and re-links each review to its product.
+    // Rebuilds the review indexes from persisted data and re-links each review to its product.
     public static void setReviews(LinkedList<Review> list) {
-        reviews = new LinkedList<>();
-
-        if (list == null || list.empty()) {
-            return;
-        }
+        // Bulk-load: linear when the list is already sorted by reviewId.
+        reviews = AVL.buildFromSorted(list, Review::getReviewId);
+        byCustomer = new SecondaryIndex<>();
+        byProduct = new SecondaryIndex<>();
 
-        list.findFirst();
-        while (true) {
-            Review r = list.retrieve();
+        for (AVLCursor<Review> c = reviews.cursor(); c.valid(); c.findNext()) {
+            Review r = c.retrieve();
 
-            reviews.insert(r);
+            byCustomer.insert(r.customerId, r.reviewId, r);
+            byProduct.insert(r.productId, r.reviewId, r);
 
             Product p = Product.findProduct(r.getProductId());
             if (p != null) {
                 p.addReview(r);
             }
-
-            if (list.last()) break;
-            list.findNext();
         }
     }
 
     // Validates rating and entity existence before adding, then attaches the review to the product as well.
+    // Serialized with editReview on the Review class, like the Order mutators, so the indexes and
+    // the log see the same order of changes; the wait for the log happens outside the monitor.
     public static boolean addReview(Review review) {
         if (review.getRating() < 1 || review.getRating() > 5) {
             System.out.println("Invalid rating! It must be between 1 and 5.");
@@ -106,126 +149,126 @@ public class Review {
             return false;
         }
 
-        reviews.insert(review);
-        product.addReview(review);
+        if (!addReview(review, product, true)) {
+            System.out.println("Review already exists!");
+            return false;
+        }
+        WriteAheadLog.awaitCommit();
         System.out.println("Review added successfully!");
         return true;
     }
 
-    public static boolean editReview(int reviewId, int newRating, String newComment) {
+    // Applies addReview on the Review class without the validation and logs it only when log is set;
+    // replay passes false. editReview is split the same way.
+    static synchronized boolean addReview(Review review, Product product, boolean log) {
+        if (!index(review, product)) {
+            return false;
+        }
+        if (log) WriteAheadLog.logAddReview(review);
+        return true;
+    }
 
-        if (reviews.empty()) {
+    // Indexes the review and attaches it to its product (if any); false if the reviewId is taken.
+    static boolean index(Review review, Product product) {
+        if (!reviews.insert(review.getReviewId(), review)) {
             return false;
         }
+        byCustomer.insert(review.customerId, review.reviewId, review);
+        byProduct.insert(review.productId, review.reviewId, review);
+        if (product != null) {
+            product.addReview(review);
+        }
+        return true;
+    }
 
-        reviews.findFirst();
-        while (true) {
-            Review r = reviews.retrieve();
+    // Streams reviews from a CSV file straight into fresh indexes and links them to their products,
+    // without an intermediate list. Products must be loaded first. Returns the number of records read.
+    public static int loadReviews(String file) {
+        return loadReviews(file, null);
+    }
 
-            if (r.getReviewId() == reviewId) {
-                if (newRating >= 1 && newRating <= 5) {
-                    r.setRating(newRating);
-                }
-                if (newComment != null && !newComment.isEmpty()) {
-                    r.setComment(newComment);
-                }
-                return true;
+    // Same, with the file parsed in parallel chunks by loader (sequentially when it is null).
+    public static int loadReviews(String file, ParallelCSVLoader loader) {
+        reviews = new AVL<>();
+        byCustomer = new SecondaryIndex<>();
+        byProduct = new SecondaryIndex<>();
+        SimpleCSVReader.RecordSink<Review> sink = batch -> {
+            for (Review r : batch) {
+                index(r, Product.findProduct(r.getProductId()));
             }
+        };
+        return (loader != null) ? loader.streamReviews(file, sink)
+                : SimpleCSVReader.streamReviews(file, sink, SimpleCSVReader.DEFAULT_BATCH);
+    }
 
-            if (reviews.last())
-                break;
+    public static boolean editReview(int reviewId, int newRating, String newComment) {
+        if (!editReview(reviewId, newRating, newComment, true)) {
+            return false;
+        }
+        WriteAheadLog.awaitCommit();
+        return true;
+    }
 
-            reviews.findNext();
+    static synchronized boolean editReview(int reviewId, int newRating, String newComment, boolean log) {
+        Review r = reviews.search(reviewId);
+        if (r == null) {
+            return false;
         }
 
-        return false;
+        if (newRating >= 1 && newRating <= 5) {
+            r.setRating(newRating);
+        }
+        if (newComment != null && !newComment.isEmpty()) {
+            r.setComment(newComment);
+        }
+        if (log) WriteAheadLog.logEditReview(reviewId, newRating, newComment);
+        return true;
     }
 
     // Finds products reviewed by both customers and returns those with overall average rating > 4.0.
     public static LinkedList<Product> getCommonHighRatedProducts(int customerId1, int customerId2) {
         LinkedList<Product> result = new LinkedList<>();
 
-        LinkedList<Integer> firstCustomerProducts = new LinkedList<>();
-        LinkedList<Integer> secondCustomerProducts = new LinkedList<>();
-
-        if (reviews.empty())
-            return result;
+        // Only the two customers' postings are read; first customer's products keep reviewId order.
+        IntList firstCustomerProducts = new IntList();
+        IntAVL firstSeen = new IntAVL();
+        IntAVL secondCustomerProducts = new IntAVL();
 
-        reviews.findFirst();
-        while (true) {
-            Review r = reviews.retrieve();
-
-            if (r.getCustomerId() == customerId1 && !contains(firstCustomerProducts, r.getProductId())) {
-                firstCustomerProducts.insert(r.getProductId());
+        for (SecondaryIndex.Cursor<Review> c = byCustomer.rangeCursor(customerId1, customerId1); c.valid(); c.findNext()) {
+            int productId = c.retrieve().getProductId();
+            if (firstSeen.insert(productId)) {
+                firstCustomerProducts.add(productId);
             }
+        }
 
-            if (r.getCustomerId() == customerId2 && !contains(secondCustomerProducts, r.getProductId())) {
-                secondCustomerProducts.insert(r.getProductId());
-            }
+        if (firstCustomerProducts.empty())
+            return result;
 
-            if (reviews.last())
-                break;
-            reviews.findNext();
+        for (SecondaryIndex.Cursor<Review> c = byCustomer.rangeCursor(customerId2, customerId2); c.valid(); c.findNext()) {
+            secondCustomerProducts.insert(c.retrieve().getProductId());
         }
 
-        if (!firstCustomerProducts.empty()) {
-            firstCustomerProducts.findFirst();
-            while (true) {
-                int productId = firstCustomerProducts.retrieve();
+        for (int i = 0; i < firstCustomerProducts.getSize(); i++) {
+            int productId = firstCustomerProducts.get(i);
 
-                if (contains(secondCustomerProducts, productId)) {
-                    Product p = Product.findProduct(productId);
-                    if (p != null && p.getAverageRating() > 4.0) {
-                        result.insert(p);
-                    }
+            if (secondCustomerProducts.contains(productId)) {
+                Product p = Product.findProduct(productId);
+                if (p != null && p.getAverageRating() > 4.0) {
+                    result.insert(p);
                 }
-
-                if (firstCustomerProducts.last())
-                    break;
-                firstCustomerProducts.findNext();
             }
         }
 
         return result;
     }
 
-    // Helper to avoid duplicate product IDs in intermediate lists.
-    private static boolean contains(LinkedList<Integer> list, int value) {
-        if (list.empty()) return false;
-
-        list.findFirst();
-        while (true) {
-            if (list.retrieve() == value)
-                return true;
-            if (list.last())
-                break;
-            list.findNext();
-        }
-        return false;
-    }
-
+    // Returns the customer's reviews ordered by reviewId, read from the customer posting index.
     public static LinkedList<Review> getReviewsByCustomer(int customerId) {
-        LinkedList<Review> customerReviews = new LinkedList<>();
-
-        if (reviews.empty()) {
-            return customerReviews;
-        }
-
-        reviews.findFirst();
-        while (true) {
-            Review r = reviews.retrieve();
-
-            if (r.getCustomerId() == customerId) {
-                customerReviews.insert(r);
-            }
-
-            if (reviews.last()) {
-                break;
-            }
-            reviews.findNext();
-        }
+        return byCustomer.rangeQuery(customerId, customerId);
+    }
 
-        return customerReviews;
+    public static LinkedList<Review> getReviewsByProduct(int productId) {
+        return byProduct.rangeQuery(productId, productId);
     }
 
     public String toString() {
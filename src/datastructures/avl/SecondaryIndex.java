@@ -0,0 +1,169 @@
+package datastructures.avl;
+
+// Ordered secondary index over a non-unique int key (price in cents, epoch day, ...).
+// Entries are grouped per key into an inner AVL keyed by the owner's unique id, so duplicates
+// are allowed and every operation stays O(log n); ties are ordered by id.
+public class SecondaryIndex<T> {
+
+    private AVL<AVL<T>> buckets;
+    private int size;
+
+    public SecondaryIndex() {
+        buckets = new AVL<>();
+        size = 0;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void clear() {
+        buckets = new AVL<>();
+        size = 0;
+    }
+
+    // Adds (key, id) -> value; returns false if that pair is already indexed.
+    public boolean insert(int key, int id, T value) {
+        AVL<T> bucket = buckets.search(key);
+        if (bucket == null) {
+            bucket = new AVL<>();
+            buckets.insert(key, bucket);
+        }
+        if (!bucket.insert(id, value))
+            return false;
+        size++;
+        return true;
+    }
+
+    public boolean remove(int key, int id) {
+        AVL<T> bucket = buckets.search(key);
+        if (bucket == null || !bucket.delete(id))
+            return false;
+        if (bucket.empty())
+            buckets.delete(key);
+        size--;
+        return true;
+    }
+
+    public boolean contains(int key, int id) {
+        AVL<T> bucket = buckets.search(key);
+        return bucket != null && bucket.contains(id);
+    }
+
+    // Value stored under (key, id), or null if there is none.
+    public T search(int key, int id) {
+        AVL<T> bucket = buckets.search(key);
+        return bucket == null ? null : bucket.search(id);
+    }
+
+    // Re-files an entry whose secondary key changed.
+    public void move(int oldKey, int newKey, int id, T value) {
+        if (oldKey == newKey) return;
+        remove(oldKey, id);
+        insert(newKey, id, value);
+    }
+
+    // Number of entries whose key lies in [minKey, maxKey]; O(number of distinct keys in range).
+    public int countInRange(int minKey, int maxKey) {
+        int count = 0;
+        for (AVLCursor<AVL<T>> c = buckets.rangeCursor(minKey, maxKey); c.valid(); c.findNext())
+            count += c.retrieve().getSize();
+        return count;
+    }
+
+    // Entries with key in [minKey, maxKey] (inclusive), ascending by (key, id).
+    public Cursor<T> rangeCursor(int minKey, int maxKey) {
+        return new Cursor<>(buckets.rangeCursor(minKey, maxKey), false);
+    }
+
+    public Cursor<T> cursor() {
+        return new Cursor<>(buckets.cursor(), false);
+    }
+
+    // Entries from (key, id) onwards, ascending by (key, id).
+    public Cursor<T> cursorFrom(int key, int id) {
+        return new Cursor<>(buckets.cursorFrom(key), key, id);
+    }
+
+    // All entries, descending by (key, id).
+    public Cursor<T> descendingCursor() {
+        return new Cursor<>(buckets.descendingCursor(), true);
+    }
+
+    // All entries by descending key, but ascending id within a key (e.g. "best first, ties by id").
+    public Cursor<T> descendingKeysCursor() {
+        return new Cursor<>(buckets.descendingCursor(), false);
+    }
+
+    public LinkedList<T> rangeQuery(int minKey, int maxKey) {
+        LinkedList<T> result = new LinkedList<>();
+        for (Cursor<T> c = rangeCursor(minKey, maxKey); c.valid(); c.findNext())
+            result.insert(c.retrieve());
+        return result;
+    }
+
+    // Streams entries bucket by bucket; same validity rules as AVLCursor.
+    public static class Cursor<T> {
+
+        private final AVLCursor<AVL<T>> outer;
+        private AVLCursor<T> inner;
+        private final boolean descending;   // direction inside each bucket
+
+        private Cursor(AVLCursor<AVL<T>> outer, boolean descending) {
+            this.outer = outer;
+            this.descending = descending;
+            inner = null;
+            if (outer.valid())
+                inner = open(outer.retrieve());
+        }
+
+        // Ascending, from the first entry >= (key, id); buckets are never empty, so the next one
+        // has a first entry.
+        private Cursor(AVLCursor<AVL<T>> outer, int key, int id) {
+            this.outer = outer;
+            this.descending = false;
+            inner = null;
+            if (!outer.valid())
+                return;
+            inner = (outer.key() == key) ? outer.retrieve().cursorFrom(id) : open(outer.retrieve());
+            if (!inner.valid()) {
+                outer.findNext();
+                inner = outer.valid() ? open(outer.retrieve()) : null;
+            }
+        }
+
+        private AVLCursor<T> open(AVL<T> bucket) {
+            return descending ? bucket.descendingCursor() : bucket.cursor();
+        }
+
+        public boolean valid() {
+            return inner != null && inner.valid();
+        }
+
+        // The secondary key of the current entry.
+        public int key() {
+            return outer.key();
+        }
+
+        // The unique id of the current entry.
+        public int id() {
+            return inner.key();
+        }
+
+        public T retrieve() {
+            return inner.retrieve();
+        }
+
+        public void findNext() {
+            inner.findNext();
+            if (!inner.valid()) {
+                outer.findNext();
+                inner = outer.valid() ? open(outer.retrieve()) : null;
+            }
+        }
+    }
+}
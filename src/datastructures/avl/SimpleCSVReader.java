@@ -1,110 +1,150 @@
 package datastructures.avl;
 
-import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 public class SimpleCSVReader {
 
-    private static String[] splitCSV(String line) {
-        return line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+    // Turns the current record of a tokenizer into one entity; shared with ParallelCSVLoader.
+    // Returns null for a record that is skipped (after reporting it) instead of failing the load.
+    interface RecordParser<T> {
+        T parse(CSVTokenizer csv);
     }
 
-    private static String clean(String s) {
-        s = s.trim();
-        if (s.startsWith("\"") && s.endsWith("\"") && s.length() >= 2) {
-            s = s.substring(1, s.length() - 1);
-        }
-        return s;
+    // Receives parsed records batch by batch. The reader does not parse the next batch until accept
+    // returns, so a slow sink throttles the reader instead of letting records pile up.
+    public interface RecordSink<T> {
+        void accept(LinkedList<T> batch);
     }
 
-    public static datastructures.avl.LinkedList<Product> readProducts(String file) {
-    	datastructures.avl.LinkedList<Product> list = new datastructures.avl.LinkedList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            br.readLine();
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] v = splitCSV(line);
-                int productId = Integer.parseInt(clean(v[0]));
-                String name   = clean(v[1]);
-                double price  = Double.parseDouble(clean(v[2]));
-                int stock     = Integer.parseInt(clean(v[3]));
-                Product p = new Product(productId, name, price, stock);
-                list.insert(p);
-            }
-        } catch (Exception e) {
-            System.out.println("Error reading products: " + e.getMessage());
+    public static final int DEFAULT_BATCH = 1024;
+
+    static Product parseProduct(CSVTokenizer csv) {
+        int productId = csv.getInt(0);
+        String name   = csv.getString(1);
+        double price  = csv.getDouble(2);
+        int stock     = csv.getInt(3);
+        return new Product(productId, name, price, stock);
+    }
+
+    static Customer parseCustomer(CSVTokenizer csv) {
+        int id = csv.getInt(0);
+        String name = csv.getString(1);
+        String email = csv.getString(2);
+        return new Customer(id, name, email);
+    }
+
+    static Order parseOrder(CSVTokenizer csv) {
+        int orderId    = csv.getInt(0);
+        int customerId = csv.getInt(1);
+        IntList items  = new IntList(4);
+        csv.getInts(2, ';', items);
+        items.trimToSize();
+        double totalPrice = csv.getDouble(3);
+        String orderDate  = csv.getString(4);
+        String status     = csv.getString(5);
+        int orderDay;
+        try {
+            orderDay = Order.parseEpochDay(orderDate);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Skipping order " + orderId + ": " + e.getMessage());
+            return null;
         }
-        return list;
+        return new Order(orderId, customerId, items, totalPrice, orderDate, orderDay, status);
     }
 
-    public static datastructures.avl.LinkedList<Customer> readCustomers(String file) { 
-    	datastructures.avl.LinkedList<Customer> list = new datastructures.avl.LinkedList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            br.readLine();
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] v = splitCSV(line);
-                int id = Integer.parseInt(clean(v[0]));
-                String name = clean(v[1]);
-                String email = clean(v[2]);
-                list.insert(new Customer(id, name, email));
+    static Review parseReview(CSVTokenizer csv) {
+        int reviewId   = csv.getInt(0);
+        int productId  = csv.getInt(1);
+        int customerId = csv.getInt(2);
+        int rating     = csv.getInt(3);
+        String comment = csv.getString(4);
+        return new Review(reviewId, productId, customerId, rating, comment);
+    }
+
+    private static <T> datastructures.avl.LinkedList<T> read(String file, RecordParser<T> parser, String what) {
+    	datastructures.avl.LinkedList<T> list = new datastructures.avl.LinkedList<>();
+        try (FileReader fr = new FileReader(file)) {
+            CSVTokenizer csv = new CSVTokenizer(fr);
+            csv.nextRecord();   // header
+            while (csv.nextRecord()) {
+                T record = parser.parse(csv);
+                if (record != null) list.insert(record);
             }
         } catch (Exception e) {
-            System.out.println("Error reading customers: " + e.getMessage());
+            System.out.println("Error reading " + what + ": " + e.getMessage());
         }
         return list;
     }
 
-    public static datastructures.avl.LinkedList<Order> readOrders(String file) { 
-    	datastructures.avl.LinkedList<Order> list = new datastructures.avl.LinkedList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            br.readLine();
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] v = splitCSV(line);
-                int orderId    = Integer.parseInt(clean(v[0]));
-                int customerId = Integer.parseInt(clean(v[1]));
-                String productIdsStr = clean(v[2]);
-                datastructures.avl.LinkedList<Integer> items = new datastructures.avl.LinkedList<>();
-                if (!productIdsStr.isEmpty()) {
-                    String[] ids = productIdsStr.split(";");
-                    for (int i = 0; i < ids.length; i++) {
-                        String s = ids[i].trim();
-                        if (!s.isEmpty()) items.insert(Integer.parseInt(s));
-                    }
+    // Streams records to the sink in batches of at most batchSize; returns the number of records
+    // delivered, which leaves out records the parser skipped.
+    // A file that cannot be read throws UncheckedIOException and a record that cannot be parsed
+    // IllegalArgumentException, after the records before it have been delivered; exceptions thrown
+    // by the sink propagate unchanged.
+    static <T> int stream(String file, RecordParser<T> parser, RecordSink<T> sink, int batchSize, String what) {
+        int count = 0, row = 0;
+        LinkedList<T> batch = new LinkedList<>();
+        try (FileReader fr = new FileReader(file)) {
+            CSVTokenizer csv = new CSVTokenizer(fr);
+            csv.nextRecord();   // header
+            while (true) {
+                T record;
+                try {
+                    if (!csv.nextRecord()) break;
+                    row++;
+                    record = parser.parse(csv);
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Error reading " + what + " (record "
+                            + row + "): " + e.getMessage(), e);
+                }
+                if (record == null) continue;
+                batch.append(record);
+                count++;
+                if (batch.getSize() == batchSize) {
+                    sink.accept(batch);
+                    batch = new LinkedList<>();
                 }
-                double totalPrice = Double.parseDouble(clean(v[3]));
-                String orderDate  = clean(v[4]);
-                String status     = clean(v[5]);
-                list.insert(new Order(orderId, customerId, items, totalPrice, orderDate, status));
             }
-        } catch (Exception e) {
-            System.out.println("Error reading orders: " + e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading " + what + ": " + e.getMessage(), e);
         }
-        return list;
+        if (!batch.empty()) {
+            sink.accept(batch);
+        }
+        return count;
+    }
+
+    public static int streamProducts(String file, RecordSink<Product> sink, int batchSize) {
+        return stream(file, SimpleCSVReader::parseProduct, sink, batchSize, "products");
+    }
+
+    public static int streamCustomers(String file, RecordSink<Customer> sink, int batchSize) {
+        return stream(file, SimpleCSVReader::parseCustomer, sink, batchSize, "customers");
+    }
+
+    public static int streamOrders(String file, RecordSink<Order> sink, int batchSize) {
+        return stream(file, SimpleCSVReader::parseOrder, sink, batchSize, "orders");
+    }
+
+    public static int streamReviews(String file, RecordSink<Review> sink, int batchSize) {
+        return stream(file, SimpleCSVReader::parseReview, sink, batchSize, "reviews");
+    }
+
+    public static datastructures.avl.LinkedList<Product> readProducts(String file) {
+        return read(file, SimpleCSVReader::parseProduct, "products");
+    }
+
+    public static datastructures.avl.LinkedList<Customer> readCustomers(String file) { 
+        return read(file, SimpleCSVReader::parseCustomer, "customers");
+    }
+
+    public static datastructures.avl.LinkedList<Order> readOrders(String file) { 
+        return read(file, SimpleCSVReader::parseOrder, "orders");
     }
 
     public static datastructures.avl.LinkedList<Review> readReviews(String file) {  
-    	datastructures.avl.LinkedList<Review> list = new datastructures.avl.LinkedList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            br.readLine();
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] v = splitCSV(line);
-                int reviewId   = Integer.parseInt(clean(v[0]));
-                int productId  = Integer.parseInt(clean(v[1]));
-                int customerId = Integer.parseInt(clean(v[2]));
-                int rating     = Integer.parseInt(clean(v[3]));
-                String comment = clean(v[4]);
-                list.insert(new Review(reviewId, productId, customerId, rating, comment));
-            }
-        } catch (Exception e) {
-            System.out.println("Error reading reviews: " + e.getMessage());
-        }
-        return list;
+        return read(file, SimpleCSVReader::parseReview, "reviews");
     }
 }
@@ -0,0 +1,419 @@
+package datastructures.avl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Binary snapshot of the Product, Customer, Order and Review stores.
+//
+// Layout (big-endian), version 1:
+//   int MAGIC, int VERSION
+//   products:  int n, int[n] productId, double[n] price, int[n] stock, str[n] name
+//   customers: int n, int[n] customerId, str[n] name, str[n] email
+//   orders:    int n, int[n] orderId, int[n] customerId, double[n] totalPrice, int[n] orderDay,
+//              str[n] orderDate, str[n] status, int[n] itemCount, int m, int[m] items
+//   reviews:   int n, int[n] reviewId, int[n] productId, int[n] customerId, int[n] rating, str[n] comment
+//   int MAGIC
+// where str[n] is int[n] UTF-8 byte lengths (-1 for null) followed by the concatenated bytes.
+//
+// Every section is written in index (id) order, so loading hands sorted lists to the set* bulk
+// loaders and the primary trees are rebuilt in linear time. Customer order histories and product
+// review lists are not stored; they are re-linked from Order.customerId and Review.productId.
+// When orders live in on-disk storage (Order.openStorage) their section is empty and save flushes
+// the store instead.
+public class Snapshot {
+
+    static final int MAGIC = 0x41564C53;   // "AVLS"
+    static final int VERSION = 1;
+
+    private static final int BUFFER = 1 << 20;
+
+    // Writes the current stores to file, replacing it atomically: the snapshot is written and forced
+    // to a temporary file next to it, renamed over file, and the rename is forced too. A crash at
+    // any point leaves either the old snapshot or the complete new one, never a torn file.
+    public static void save(String file) throws IOException {
+        LinkedList<Product> products = Product.getAllProducts();
+        LinkedList<Customer> customers = Customer.getCustomers();
+        // Orders in on-disk storage are made durable by flushing the store, not copied here.
+        LinkedList<Order> orders;
+        if (Order.isStorageOpen()) {
+            Order.flushStorage();
+            orders = new LinkedList<>();
+        }
+        else {
+            orders = Order.snapshotOrders().inOrderTraversal();
+        }
+        LinkedList<Review> reviews = Review.getReviews();
+
+        Path target = Paths.get(file).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            write(tmp, products, customers, orders, reviews);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        syncDirectory(target.getParent());
+    }
+
+    // Makes a rename in dir durable. Some platforms cannot open a directory for fsync; there the
+    // rename is as durable as the file system makes it on its own.
+    static void syncDirectory(Path dir) throws IOException {
+        if (dir == null) return;
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (UnsupportedOperationException | AccessDeniedException e) {
+            // e.g. Windows: directories cannot be opened as channels
+        }
+    }
+
+    private static void write(Path file, LinkedList<Product> products, LinkedList<Customer> customers,
+                              LinkedList<Order> orders, LinkedList<Review> reviews) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer w = new Writer(ch);
+            w.putInt(MAGIC);
+            w.putInt(VERSION);
+
+            int n = products.getSize();
+            int[] ids = new int[n], stock = new int[n];
+            double[] price = new double[n];
+            String[] name = new String[n];
+            int i = 0;
+            for (Product p : products) {
+                ids[i] = p.getProductId();
+                price[i] = p.getPrice();
+                stock[i] = p.getStock();
+                name[i] = p.getName();
+                i++;
+            }
+            w.putInt(n);
+            w.putInts(ids, n);
+            w.putDoubles(price, n);
+            w.putInts(stock, n);
+            w.putStrings(name, n);
+
+            n = customers.getSize();
+            ids = new int[n];
+            name = new String[n];
+            String[] email = new String[n];
+            i = 0;
+            for (Customer c : customers) {
+                ids[i] = c.getCustomerId();
+                name[i] = c.getName();
+                email[i] = c.getEmail();
+                i++;
+            }
+            w.putInt(n);
+            w.putInts(ids, n);
+            w.putStrings(name, n);
+            w.putStrings(email, n);
+
+            n = orders.getSize();
+            ids = new int[n];
+            int[] customerId = new int[n], day = new int[n], itemCount = new int[n];
+            double[] total = new double[n];
+            String[] date = new String[n], status = new String[n];
+            IntList items = new IntList();
+            i = 0;
+            for (Order o : orders) {
+                ids[i] = o.getOrderId();
+                customerId[i] = o.getCustomerId();
+                total[i] = o.getTotalPrice();
+                day[i] = o.getOrderDay();
+                date[i] = o.getOrderDate();
+                status[i] = o.getStatus();
+                IntList oi = o.getItems();
+                int k = oi == null ? 0 : oi.getSize();
+                itemCount[i] = k;
+                for (int j = 0; j < k; j++) {
+                    items.add(oi.get(j));
+                }
+                i++;
+            }
+            w.putInt(n);
+            w.putInts(ids, n);
+            w.putInts(customerId, n);
+            w.putDoubles(total, n);
+            w.putInts(day, n);
+            w.putStrings(date, n);
+            w.putStrings(status, n);
+            w.putInts(itemCount, n);
+            w.putInt(items.getSize());
+            w.putInts(items.toArray(), items.getSize());
+
+            n = reviews.getSize();
+            ids = new int[n];
+            int[] productId = new int[n], rating = new int[n];
+            customerId = new int[n];
+            String[] comment = new String[n];
+            i = 0;
+            for (Review r : reviews) {
+                ids[i] = r.getReviewId();
+                productId[i] = r.getProductId();
+                customerId[i] = r.getCustomerId();
+                rating[i] = r.getRating();
+                comment[i] = r.getComment();
+                i++;
+            }
+            w.putInt(n);
+            w.putInts(ids, n);
+            w.putInts(productId, n);
+            w.putInts(customerId, n);
+            w.putInts(rating, n);
+            w.putStrings(comment, n);
+
+            w.putInt(MAGIC);
+            w.flush();
+            ch.force(true);
+        }
+    }
+
+    // Replaces the current stores with the contents of file. Nothing is replaced if the file is
+    // not a complete snapshot of a supported version.
+    public static void load(String file) throws IOException {
+        LinkedList<Product> products = new LinkedList<>();
+        LinkedList<Customer> customers = new LinkedList<>();
+        LinkedList<Order> orders = new LinkedList<>();
+        LinkedList<Review> reviews = new LinkedList<>();
+
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            Reader r = new Reader(ch);
+            if (r.getInt() != MAGIC)
+                throw new IOException("Not a snapshot file: " + file);
+            int version = r.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported snapshot version " + version + " (expected " + VERSION + ")");
+
+            int n = r.getCount();
+            int[] ids = r.getInts(n);
+            double[] price = r.getDoubles(n);
+            int[] stock = r.getInts(n);
+            String[] name = r.getStrings(n);
+            for (int i = 0; i < n; i++) {
+                products.append(new Product(ids[i], name[i], price[i], stock[i]));
+            }
+
+            n = r.getCount();
+            ids = r.getInts(n);
+            name = r.getStrings(n);
+            String[] email = r.getStrings(n);
+            for (int i = 0; i < n; i++) {
+                customers.append(new Customer(ids[i], name[i], email[i]));
+            }
+
+            n = r.getCount();
+            ids = r.getInts(n);
+            int[] customerId = r.getInts(n);
+            double[] total = r.getDoubles(n);
+            int[] day = r.getInts(n);
+            String[] date = r.getStrings(n);
+            String[] status = r.getStrings(n);
+            int[] itemCount = r.getInts(n);
+            int[] items = r.getInts(r.getCount());
+            int next = 0;
+            for (int i = 0; i < n; i++) {
+                int k = itemCount[i];
+                if (k < 0 || k > items.length - next)
+                    throw new IOException("Corrupt snapshot: order items out of range");
+                IntList oi = new IntList(k);
+                for (int j = 0; j < k; j++) {
+                    oi.add(items[next++]);
+                }
+                orders.append(new Order(ids[i], customerId[i], oi, total[i], date[i], day[i], status[i]));
+            }
+
+            n = r.getCount();
+            ids = r.getInts(n);
+            int[] productId = r.getInts(n);
+            customerId = r.getInts(n);
+            int[] rating = r.getInts(n);
+            String[] comment = r.getStrings(n);
+            for (int i = 0; i < n; i++) {
+                reviews.append(new Review(ids[i], productId[i], customerId[i], rating[i], comment[i]));
+            }
+
+            if (r.getInt() != MAGIC)
+                throw new IOException("Corrupt snapshot: missing trailer");
+        }
+
+        // Same dependency order as the CSV load: orders link to customers, reviews to products.
+        Product.setAllProducts(products);
+        Customer.setCustomers(customers);
+        Order.setOrders(orders);
+        Review.setReviews(reviews);
+    }
+
+    // Buffers columns into a direct buffer and writes it to the channel whenever it fills up.
+    private static class Writer {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+
+        Writer(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes)
+                flush();
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            buf.clear();
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putInts(int[] a, int n) throws IOException {
+            for (int i = 0; i < n; ) {
+                ensure(4);
+                int k = Math.min(n - i, buf.remaining() / 4);
+                buf.asIntBuffer().put(a, i, k);
+                buf.position(buf.position() + k * 4);
+                i += k;
+            }
+        }
+
+        void putDoubles(double[] a, int n) throws IOException {
+            for (int i = 0; i < n; ) {
+                ensure(8);
+                int k = Math.min(n - i, buf.remaining() / 8);
+                buf.asDoubleBuffer().put(a, i, k);
+                buf.position(buf.position() + k * 8);
+                i += k;
+            }
+        }
+
+        void putStrings(String[] a, int n) throws IOException {
+            byte[][] bytes = new byte[n][];
+            int[] len = new int[n];
+            for (int i = 0; i < n; i++) {
+                bytes[i] = a[i] == null ? null : a[i].getBytes(StandardCharsets.UTF_8);
+                len[i] = a[i] == null ? -1 : bytes[i].length;
+            }
+            putInts(len, n);
+            for (int i = 0; i < n; i++) {
+                if (bytes[i] != null)
+                    putBytes(bytes[i]);
+            }
+        }
+
+        private void putBytes(byte[] b) throws IOException {
+            for (int i = 0; i < b.length; ) {
+                ensure(1);
+                int k = Math.min(b.length - i, buf.remaining());
+                buf.put(b, i, k);
+                i += k;
+            }
+        }
+    }
+
+    // Reads columns back through a fixed-size buffer refilled from the channel.
+    private static class Reader {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+
+        Reader(FileChannel ch) {
+            this.ch = ch;
+            buf.limit(0);
+        }
+
+        // Makes at least bytes (at most BUFFER) readable, or fails on a truncated file.
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() >= bytes)
+                return;
+            buf.compact();
+            while (buf.position() < bytes) {
+                if (ch.read(buf) < 0)
+                    throw new IOException("Corrupt snapshot: unexpected end of file");
+            }
+            buf.flip();
+        }
+
+        // Fails unless the buffer and the rest of the file hold at least bytes more, so a corrupt
+        // count or length is reported before anything is allocated for it.
+        private void require(long bytes) throws IOException {
+            if (bytes > buf.remaining() + (ch.size() - ch.position()))
+                throw new IOException("Corrupt snapshot: count or length runs past the end of the file");
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return buf.getInt();
+        }
+
+        int getCount() throws IOException {
+            int n = getInt();
+            if (n < 0)
+                throw new IOException("Corrupt snapshot: negative count");
+            return n;
+        }
+
+        int[] getInts(int n) throws IOException {
+            require(n * 4L);
+            int[] a = new int[n];
+            for (int i = 0; i < n; ) {
+                ensure(4);
+                int k = Math.min(n - i, buf.remaining() / 4);
+                buf.asIntBuffer().get(a, i, k);
+                buf.position(buf.position() + k * 4);
+                i += k;
+            }
+            return a;
+        }
+
+        double[] getDoubles(int n) throws IOException {
+            require(n * 8L);
+            double[] a = new double[n];
+            for (int i = 0; i < n; ) {
+                ensure(8);
+                int k = Math.min(n - i, buf.remaining() / 8);
+                buf.asDoubleBuffer().get(a, i, k);
+                buf.position(buf.position() + k * 8);
+                i += k;
+            }
+            return a;
+        }
+
+        String[] getStrings(int n) throws IOException {
+            int[] len = getInts(n);
+            long total = 0;
+            for (int l : len) {
+                if (l > 0)
+                    total += l;
+            }
+            require(total);
+            String[] a = new String[n];
+            byte[] scratch = new byte[64];
+            for (int i = 0; i < n; i++) {
+                if (len[i] < 0)
+                    continue;
+                if (len[i] > scratch.length)
+                    scratch = new byte[Math.max(len[i], scratch.length * 2)];
+                for (int j = 0; j < len[i]; ) {
+                    ensure(1);
+                    int k = Math.min(len[i] - j, buf.remaining());
+                    buf.get(scratch, j, k);
+                    j += k;
+                }
+                a[i] = new String(scratch, 0, len[i], StandardCharsets.UTF_8);
+            }
+            return a;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package datastructures.avl;
+
+// Inverted index from character trigrams to the ids whose text contains them. A substring query
+// of length >= 3 can only match texts that contain all of its trigrams, so intersecting those
+// posting lists yields a small candidate set that the caller verifies. Texts are expected to be
+// normalized (e.g. lowercased) by the caller, the same way for indexing and for queries.
+public class TrigramIndex<T> {
+
+    // Posting lists: trigram key -> (id -> value), each list ordered by id.
+    private SecondaryIndex<T> postings;
+
+    public TrigramIndex() {
+        postings = new SecondaryIndex<>();
+    }
+
+    public void clear() {
+        postings = new SecondaryIndex<>();
+    }
+
+    // Packs text[i..i+2] into an int. Characters below 1024 fit exactly (10 bits each); anything
+    // else is hashed, which can only add candidates, never lose matches.
+    static int trigramKey(String text, int i) {
+        char a = text.charAt(i), b = text.charAt(i + 1), c = text.charAt(i + 2);
+        if (a < 1024 && b < 1024 && c < 1024)
+            return (a << 20) | (b << 10) | c;
+        return 0x40000000 | (((a * 31 + b) * 31 + c) & 0x3FFFFFFF);
+    }
+
+    public void add(int id, String text, T value) {
+        for (int i = 0; i + 3 <= text.length(); i++)
+            postings.insert(trigramKey(text, i), id, value);
+    }
+
+    public void remove(int id, String text) {
+        for (int i = 0; i + 3 <= text.length(); i++)
+            postings.remove(trigramKey(text, i), id);
+    }
+
+    // Returns, ordered by id, the values whose text contains every trigram of query.
+    // Queries shorter than 3 characters have no trigrams and must be handled by the caller.
+    public LinkedList<T> candidates(String query) {
+        LinkedList<T> result = new LinkedList<>();
+        if (query.length() < 3) return result;
+
+        IntAVL distinct = new IntAVL();
+        for (int i = 0; i + 3 <= query.length(); i++)
+            distinct.insert(trigramKey(query, i));
+        IntList keys = distinct.getKeysSorted();
+
+        // Drive the intersection from the shortest posting list.
+        int shortest = -1, shortestCount = Integer.MAX_VALUE;
+        for (int i = 0; i < keys.getSize(); i++) {
+            int count = postings.countInRange(keys.get(i), keys.get(i));
+            if (count == 0) return result;
+            if (count < shortestCount) {
+                shortestCount = count;
+                shortest = keys.get(i);
+            }
+        }
+
+        for (SecondaryIndex.Cursor<T> c = postings.rangeCursor(shortest, shortest); c.valid(); c.findNext()) {
+            int id = c.id();
+            boolean inAll = true;
+            for (int i = 0; i < keys.getSize() && inAll; i++) {
+                int k = keys.get(i);
+                if (k != shortest && !postings.contains(k, id))
+                    inAll = false;
+            }
+            if (inAll)
+                result.insert(c.retrieve());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,572 @@
+package datastructures.avl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// Append-only binary log of store mutations, replayed on top of the last Snapshot after a crash.
+//
+// Each record is framed as int payloadLength, int CRC32C(payload), payload; the payload starts with
+// a one-byte record type. Replay stops at the first incomplete or corrupt frame (a torn tail), and
+// open() truncates the file there so new records follow the last good one.
+//
+// Group commit: writers only copy their record into a shared buffer. A background flusher writes the
+// buffer and forces it to disk once groupSize records are pending or maxDelayMillis has passed since
+// the oldest of them, so one fsync covers every record of the group. With syncOnCommit, a mutator
+// returns only after its record is on disk; without it, a crash can lose at most the last group.
+//
+// The entity classes log through the attached instance after a mutation has been applied, while
+// still holding their store lock so records follow the order of the changes, and then call
+// awaitCommit() after releasing that lock: writers waiting for the same fsync do not block each
+// other, so they land in one group. Every record sets an absolute value, adds a record that is rejected when it
+// already exists or deletes one, so replaying records that are already in the snapshot is harmless.
+//
+// Logged: Product.addProduct/deleteProduct/updatePrice/updateStock, Customer.addCustomer,
+// Order.addOrder/cancelOrder/updateOrderStatus, Review.addReview/editReview.
+// Not logged: the bulk loaders (load*, set* taking a list, LoadPipeline), which replace whole stores
+// and should be followed by checkpoint(); setIndexKind, which changes no data; and the setters on
+// entity objects (setName, setOrderDate, setEmail, ...), the unlogged building blocks of the
+// methods above. Changes made through those setters are lost on a crash unless a checkpoint
+// follows them.
+public class WriteAheadLog implements AutoCloseable {
+
+    static final byte UPDATE_STOCK = 1;
+    static final byte UPDATE_PRICE = 2;
+    static final byte ADD_ORDER = 3;
+    static final byte CANCEL_ORDER = 4;
+    static final byte UPDATE_ORDER_STATUS = 5;
+    static final byte ADD_CUSTOMER = 6;
+    static final byte ADD_REVIEW = 7;
+    static final byte EDIT_REVIEW = 8;
+    static final byte ADD_PRODUCT = 9;
+    static final byte DELETE_PRODUCT = 10;
+
+    private static final int HEADER = 8;
+
+    // The log mutations are recorded in, or null when logging is off.
+    private static volatile WriteAheadLog active;
+
+    private final Path path;
+    private final FileChannel ch;
+    private final int groupSize;
+    private final long maxDelayNanos;
+    private final boolean syncOnCommit;
+    private final Thread flusher;
+
+    // Guarded by this. Records are numbered from 1 in append order.
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long appended, taken, durable, syncs;
+    private long oldestPendingNanos;
+    private IOException failure;
+    private boolean closed;
+    private int checkpointing;
+
+    // Number of the last record appended by each thread, for awaitDurable.
+    private final ThreadLocal<Long> lastAppended = ThreadLocal.withInitial(() -> 0L);
+
+    private WriteAheadLog(Path path, FileChannel ch, int groupSize, long maxDelayMillis, boolean syncOnCommit) {
+        this.path = path;
+        this.ch = ch;
+        this.groupSize = Math.max(1, groupSize);
+        this.maxDelayNanos = Math.max(0, maxDelayMillis) * 1_000_000L;
+        this.syncOnCommit = syncOnCommit;
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // Opens (or creates) the log for appending after its last intact record.
+    public static WriteAheadLog open(String file, int groupSize, long maxDelayMillis, boolean syncOnCommit)
+            throws IOException {
+        Path path = Paths.get(file);
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long end = scan(ch, null);
+            ch.truncate(end);
+            ch.position(end);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return new WriteAheadLog(path, ch, groupSize, maxDelayMillis, syncOnCommit);
+    }
+
+    // Restores the stores from the snapshot (if it exists), replays the log over it, then opens the
+    // log for appending and attaches it.
+    public static WriteAheadLog recover(String snapshotFile, String logFile, int groupSize,
+                                        long maxDelayMillis, boolean syncOnCommit) throws IOException {
+        detach();
+        if (Files.exists(Paths.get(snapshotFile))) {
+            Snapshot.load(snapshotFile);
+        }
+        if (Files.exists(Paths.get(logFile))) {
+            replay(logFile);
+        }
+        WriteAheadLog log = open(logFile, groupSize, maxDelayMillis, syncOnCommit);
+        attach(log);
+        return log;
+    }
+
+    public static void attach(WriteAheadLog log) {
+        active = log;
+    }
+
+    public static void detach() {
+        active = null;
+    }
+
+    // Applies every intact record of the log to the stores; returns the number of records applied.
+    // Records are applied through the unlogged variants of the mutators, so a log that is attached
+    // meanwhile keeps recording live writers and replayed records are not logged again.
+    public static int replay(String file) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long[] applied = new long[1];
+            scan(ch, applied);
+            return (int) applied[0];
+        }
+    }
+
+    // Writes a snapshot and starts a new, empty log. Appends wait until the checkpoint is done, so
+    // the snapshot covers exactly the records it replaces.
+    public void checkpoint(String snapshotFile) throws IOException {
+        synchronized (this) {
+            checkpointing++;
+            try {
+                while (durable < appended && failure == null) {
+                    notifyAll();
+                    waitQuietly(0);
+                }
+                if (failure != null)
+                    throw failure;
+
+                // save replaces the snapshot atomically and durably before the log is emptied, so a
+                // crash leaves either the old snapshot and its log or the new snapshot.
+                Snapshot.save(snapshotFile);
+                ch.truncate(0);
+                ch.position(0);
+                ch.force(true);
+            } finally {
+                checkpointing--;
+                notifyAll();
+            }
+        }
+    }
+
+    // Blocks until every record appended by the calling thread is on disk.
+    public void awaitDurable() throws IOException {
+        long lsn = lastAppended.get();
+        synchronized (this) {
+            while (durable < lsn && failure == null)
+                waitQuietly(0);
+            if (durable < lsn)
+                throw failure != null ? failure : new IOException("Write-ahead log is closed");
+        }
+    }
+
+    // Number of records on disk since the log was opened.
+    public synchronized long getDurableCount() {
+        return durable;
+    }
+
+    // Number of fsyncs issued by the flusher; durable count / sync count is the average group size.
+    public synchronized long getSyncCount() {
+        return syncs;
+    }
+
+    public String getPath() {
+        return path.toString();
+    }
+
+    // Flushes everything pending and closes the file. Detaches the log if it is the active one.
+    @Override
+    public void close() throws IOException {
+        if (active == this)
+            active = null;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ch.close();
+        if (failure != null)
+            throw failure;
+    }
+
+    // ---- mutation hooks used by the entity classes ----
+
+    // Called by every logged mutator after it has released its store lock: with syncOnCommit,
+    // blocks until the records the calling thread appended are on disk.
+    static void awaitCommit() {
+        WriteAheadLog log = active;
+        if (log == null || !log.syncOnCommit) return;
+        try {
+            log.awaitDurable();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void logUpdateStock(int productId, int stock) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(UPDATE_STOCK, 8);
+        r.putInt(productId).putInt(stock);
+        log.append(r);
+    }
+
+    static void logUpdatePrice(int productId, double price) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(UPDATE_PRICE, 12);
+        r.putInt(productId).putDouble(price);
+        log.append(r);
+    }
+
+    static void logAddProduct(Product p) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(ADD_PRODUCT, 48);
+        r.putInt(p.getProductId()).putDouble(p.getPrice()).putInt(p.getStock()).putString(p.getName());
+        log.append(r);
+    }
+
+    static void logDeleteProduct(int productId) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(DELETE_PRODUCT, 4);
+        r.putInt(productId);
+        log.append(r);
+    }
+
+    static void logAddOrder(Order o) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        IntList items = o.getItems();
+        int k = items == null ? 0 : items.getSize();
+        Record r = new Record(ADD_ORDER, 32 + 4 * k);
+        r.putInt(o.getOrderId()).putInt(o.getCustomerId()).putDouble(o.getTotalPrice());
+        r.putInt(o.getOrderDay()).putString(o.getOrderDate()).putString(o.getStatus());
+        r.putInt(k);
+        for (int i = 0; i < k; i++) {
+            r.putInt(items.get(i));
+        }
+        log.append(r);
+    }
+
+    static void logCancelOrder(int orderId) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(CANCEL_ORDER, 4);
+        r.putInt(orderId);
+        log.append(r);
+    }
+
+    static void logUpdateOrderStatus(int orderId, String status) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(UPDATE_ORDER_STATUS, 16);
+        r.putInt(orderId).putString(status);
+        log.append(r);
+    }
+
+    static void logAddCustomer(Customer c) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(ADD_CUSTOMER, 48);
+        r.putInt(c.getCustomerId()).putString(c.getName()).putString(c.getEmail());
+        log.append(r);
+    }
+
+    static void logAddReview(Review rv) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(ADD_REVIEW, 48);
+        r.putInt(rv.getReviewId()).putInt(rv.getProductId()).putInt(rv.getCustomerId());
+        r.putInt(rv.getRating()).putString(rv.getComment());
+        log.append(r);
+    }
+
+    static void logEditReview(int reviewId, int rating, String comment) {
+        WriteAheadLog log = active;
+        if (log == null) return;
+        Record r = new Record(EDIT_REVIEW, 32);
+        r.putInt(reviewId).putInt(rating).putString(comment);
+        log.append(r);
+    }
+
+    // ---- group commit ----
+
+    private void append(Record r) {
+        byte[] payload = r.buf.array();
+        int len = r.buf.position();
+        CRC32C crc = new CRC32C();
+        crc.update(payload, 0, len);
+
+        synchronized (this) {
+            while (checkpointing > 0 && !closed)
+                waitQuietly(0);
+            if (failure != null)
+                throw new UncheckedIOException(failure);
+            if (closed)
+                throw new IllegalStateException("Write-ahead log is closed");
+
+            if (pending.remaining() < HEADER + len)
+                pending = grow(pending, HEADER + len);
+            pending.putInt(len).putInt((int) crc.getValue()).put(payload, 0, len);
+            boolean first = appended == taken;
+            if (first)
+                oldestPendingNanos = System.nanoTime();
+            long lsn = ++appended;
+            lastAppended.set(lsn);
+            // The flusher sleeps until a group starts (to time it) or fills up.
+            if (first || appended - taken >= groupSize)
+                notifyAll();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long lsn;
+            synchronized (this) {
+                while (true) {
+                    if (appended == taken) {
+                        if (closed) return;
+                        waitQuietly(0);
+                        continue;
+                    }
+                    // Flush when the group is full, the oldest record has waited long enough,
+                    // or someone (close, checkpoint) cannot wait.
+                    long waited = System.nanoTime() - oldestPendingNanos;
+                    if (appended - taken >= groupSize || waited >= maxDelayNanos || closed || checkpointing > 0)
+                        break;
+                    waitQuietly(Math.max(1, (maxDelayNanos - waited) / 1_000_000L));
+                }
+                batch = pending;
+                pending = spare;
+                spare = null;
+                lsn = appended;
+                taken = lsn;
+            }
+
+            IOException error = null;
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    ch.write(batch);
+                }
+                ch.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            synchronized (this) {
+                batch.clear();
+                spare = batch;
+                if (error != null) {
+                    failure = error;
+                    closed = true;
+                }
+                else {
+                    durable = lsn;
+                    syncs++;
+                }
+                notifyAll();
+                if (error != null) return;
+            }
+        }
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buf, int needed) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + needed));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+
+    // ---- reading ----
+
+    // Walks the intact records from the start of the file and returns the offset just past the last
+    // of them. If applied is not null the records are also applied and counted in applied[0].
+    private static long scan(FileChannel ch, long[] applied) throws IOException {
+        long size = ch.size();
+        long pos = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        CRC32C crc = new CRC32C();
+
+        while (pos + HEADER <= size) {
+            header.clear();
+            readFully(ch, header, pos);
+            header.flip();
+            int len = header.getInt();
+            int sum = header.getInt();
+            if (len <= 0 || pos + HEADER + len > size)
+                break;
+
+            ByteBuffer payload = ByteBuffer.allocate(len);
+            readFully(ch, payload, pos + HEADER);
+            crc.reset();
+            crc.update(payload.array(), 0, len);
+            if ((int) crc.getValue() != sum)
+                break;
+
+            if (applied != null) {
+                payload.flip();
+                applyRecord(payload);
+                applied[0]++;
+            }
+            pos += HEADER + len;
+        }
+        return pos;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0)
+                throw new IOException("Unexpected end of write-ahead log");
+            pos += n;
+        }
+    }
+
+    // Re-applies one mutation through the same quiet paths the public methods use.
+    private static void applyRecord(ByteBuffer in) throws IOException {
+        byte type = in.get();
+        switch (type) {
+            case UPDATE_STOCK: {
+                int productId = in.getInt();
+                Product.updateStock(productId, in.getInt(), false);
+                break;
+            }
+            case UPDATE_PRICE: {
+                int productId = in.getInt();
+                Product.updatePrice(productId, in.getDouble(), false);
+                break;
+            }
+            case ADD_PRODUCT: {
+                int productId = in.getInt();
+                double price = in.getDouble();
+                int stock = in.getInt();
+                Product.addProduct(new Product(productId, getString(in), price, stock), false);
+                break;
+            }
+            case DELETE_PRODUCT: {
+                Product.deleteProduct(in.getInt(), false);
+                break;
+            }
+            case ADD_ORDER: {
+                int orderId = in.getInt();
+                int customerId = in.getInt();
+                double total = in.getDouble();
+                int day = in.getInt();
+                String date = getString(in);
+                String status = getString(in);
+                int k = in.getInt();
+                IntList items = new IntList(k);
+                for (int i = 0; i < k; i++) {
+                    items.add(in.getInt());
+                }
+                Order.addOrder(new Order(orderId, customerId, items, total, date, day, status), false);
+                break;
+            }
+            case CANCEL_ORDER: {
+                Order.cancelOrder(in.getInt(), false);
+                break;
+            }
+            case UPDATE_ORDER_STATUS: {
+                int orderId = in.getInt();
+                Order.updateOrderStatus(orderId, getString(in), false);
+                break;
+            }
+            case ADD_CUSTOMER: {
+                int id = in.getInt();
+                String name = getString(in);
+                Customer.addCustomer(new Customer(id, name, getString(in)), false);
+                break;
+            }
+            case ADD_REVIEW: {
+                int reviewId = in.getInt();
+                int productId = in.getInt();
+                int customerId = in.getInt();
+                int rating = in.getInt();
+                Review r = new Review(reviewId, productId, customerId, rating, getString(in));
+                Review.addReview(r, Product.findProduct(productId), false);
+                break;
+            }
+            case EDIT_REVIEW: {
+                int reviewId = in.getInt();
+                int rating = in.getInt();
+                Review.editReview(reviewId, rating, getString(in), false);
+                break;
+            }
+            default:
+                throw new IOException("Unknown write-ahead log record type " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) return null;
+        String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return s;
+    }
+
+    // Payload under construction: the type byte followed by the fields.
+    private static class Record {
+        ByteBuffer buf;
+
+        Record(byte type, int sizeHint) {
+            buf = ByteBuffer.allocate(1 + sizeHint);
+            buf.put(type);
+        }
+
+        private void ensure(int bytes) {
+            if (buf.remaining() < bytes)
+                buf = grow(buf, bytes);
+        }
+
+        Record putInt(int v) {
+            ensure(4);
+            buf.putInt(v);
+            return this;
+        }
+
+        Record putDouble(double v) {
+            ensure(8);
+            buf.putDouble(v);
+            return this;
+        }
+
+        Record putString(String s) {
+            if (s == null)
+                return putInt(-1);
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            putInt(b.length);
+            ensure(b.length);
+            buf.put(b);
+            return this;
+        }
+    }
+}
@@ -5,4 +5,6 @@
  * 
  */
 module dataStructureAVL {
+    // Only ChunkedListBench uses it (per-thread allocation counters), so not needed at run time.
+    requires static jdk.management;
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package datastructures.avl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Randomized check of BPlusTree against a TreeMap model. The operations alternate between phases
+// that mostly insert and phases that mostly delete, so the tree grows to several levels and
+// shrinks back, going through leaf and inner splits, borrows and merges. Every query must match
+// the model, and checkInvariants() runs every checkEvery operations. Each phase ends by rebuilding
+// the model's contents with buildFromSorted and comparing that tree too.
+//
+//   javac -d out $(find src test -name '*.java')
+//   java -cp out datastructures.avl.BPlusTreeModelCheck [ops] [seed]
+public class BPlusTreeModelCheck {
+
+    public static void main(String[] args) {
+        int ops = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        int keys = 20_000, phase = 25_000, checkEvery = 1_000;
+
+        Random rnd = new Random(seed);
+        BPlusTree<Integer> tree = new BPlusTree<>();
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        int maxSize = 0;
+
+        try {
+            for (int i = 0; i < ops; i++) {
+                boolean growing = (i / phase) % 2 == 0;
+                int key = rnd.nextInt(keys);
+                int op = rnd.nextInt(10);
+
+                if (op < (growing ? 6 : 2)) {
+                    boolean inserted = tree.insert(key, i);
+                    check(inserted == !model.containsKey(key), "insert(" + key + ") returned " + inserted);
+                    if (inserted) model.put(key, i);
+                } else if (op < 8) {
+                    boolean deleted = tree.delete(key);
+                    check(deleted == model.containsKey(key), "delete(" + key + ") returned " + deleted);
+                    model.remove(key);
+                } else if (op < 9) {
+                    Integer value = tree.search(key);
+                    check(eq(value, model.get(key)) && tree.contains(key) == model.containsKey(key),
+                            "search(" + key + ") returned " + value);
+                } else {
+                    queries(tree, model, rnd);
+                }
+                check(tree.getSize() == model.size(), "size " + tree.getSize() + ", expected " + model.size());
+                maxSize = Math.max(maxSize, model.size());
+
+                if (i % checkEvery == 0)
+                    tree.checkInvariants();
+                if (i % phase == phase - 1) {
+                    verify(tree, model);
+                    verify(rebuild(model), model);
+                }
+            }
+            verify(tree, model);
+        } catch (RuntimeException e) {
+            System.out.println("FAILED: " + e);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        System.out.println("OK: " + ops + " ops, peak size " + maxSize + ", final size " + model.size());
+    }
+
+    // Ordered queries: extremes, a range (as a list and through a cursor) and a page.
+    private static void queries(BPlusTree<Integer> tree, TreeMap<Integer, Integer> model, Random rnd) {
+        check(eq(tree.findMin(), model.isEmpty() ? null : model.firstEntry().getValue()), "findMin() is wrong");
+        check(eq(tree.findMax(), model.isEmpty() ? null : model.lastEntry().getValue()), "findMax() is wrong");
+
+        int lo = rnd.nextInt(24_000) - 2_000, hi = lo + rnd.nextInt(1_000);
+        Map<Integer, Integer> range = model.subMap(lo, true, hi, true);
+        check(new ArrayList<>(range.values()).equals(toList(tree.rangeQuery(lo, hi))),
+                "rangeQuery(" + lo + ", " + hi + ") is wrong");
+        List<Integer> streamed = new ArrayList<>();
+        for (OrderedIndex.Cursor<Integer> c = tree.rangeCursor(lo, hi); c.valid(); c.findNext()) {
+            check(eq(c.retrieve(), model.get(c.key())), "rangeCursor(" + lo + ", " + hi + ") returned key " + c.key());
+            streamed.add(c.retrieve());
+        }
+        check(new ArrayList<>(range.values()).equals(streamed), "rangeCursor(" + lo + ", " + hi + ") is wrong");
+
+        int offset = rnd.nextInt(model.size() + 10), count = rnd.nextInt(100);
+        List<Integer> expected = new ArrayList<>(model.values());
+        expected = expected.subList(Math.min(offset, expected.size()), Math.min(offset + count, expected.size()));
+        check(expected.equals(toList(tree.page(offset, count))), "page(" + offset + ", " + count + ") is wrong");
+    }
+
+    // Structure plus every key and value, in order.
+    private static void verify(BPlusTree<Integer> tree, TreeMap<Integer, Integer> model) {
+        tree.checkInvariants();
+        check(tree.getSize() == model.size(), "size " + tree.getSize() + ", expected " + model.size());
+        IntList keys = tree.getKeysSorted();
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : model.entrySet()) {
+            check(keys.get(i++) == e.getKey(), "getKeysSorted() is wrong at position " + (i - 1));
+        }
+        check(new ArrayList<>(model.values()).equals(toList(tree.inOrderTraversal())), "inOrderTraversal() is wrong");
+        int count = 0;
+        for (OrderedIndex.Cursor<Integer> c = tree.cursor(); c.valid(); c.findNext(), count++) {
+            check(eq(c.retrieve(), model.get(c.key())), "cursor() returned key " + c.key());
+        }
+        check(count == model.size(), "cursor() saw " + count + " entries, expected " + model.size());
+    }
+
+    // The model's entries bulk-loaded through buildFromSorted. Values are unique (the number of the
+    // inserting operation), so the key function maps them back through a reverse map.
+    private static BPlusTree<Integer> rebuild(TreeMap<Integer, Integer> model) {
+        LinkedList<Integer> values = new LinkedList<>();
+        Map<Integer, Integer> keyOf = new HashMap<>();
+        for (Map.Entry<Integer, Integer> e : model.entrySet()) {
+            values.append(e.getValue());
+            keyOf.put(e.getValue(), e.getKey());
+        }
+        return BPlusTree.buildFromSorted(values, keyOf::get);
+    }
+
+    private static List<Integer> toList(LinkedList<Integer> list) {
+        List<Integer> result = new ArrayList<>();
+        for (Integer v : list) {
+            result.add(v);
+        }
+        return result;
+    }
+
+    private static boolean eq(Integer a, Integer b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+}
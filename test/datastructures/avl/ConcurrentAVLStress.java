@@ -0,0 +1,142 @@
+package datastructures.avl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Multi-threaded stress test for ConcurrentAVL. Each worker owns the keys k with k % threads == t
+// and mixes inserts, deletes, point searches, range queries and streaming range cursors on them,
+// keeping a private model of which of its keys are present; a checker thread verifies the AVL
+// invariants while they run.
+// At the end every worker's model must match the tree exactly.
+//
+//   javac -d out $(find src test -name '*.java')
+//   java -cp out datastructures.avl.ConcurrentAVLStress [threads] [opsPerThread] [keysPerThread]
+public class ConcurrentAVLStress {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int ops = (args.length > 1) ? Integer.parseInt(args[1]) : 200_000;
+        int keysPerThread = (args.length > 2) ? Integer.parseInt(args[2]) : 2_000;
+
+        ConcurrentAVL<Integer> tree = new ConcurrentAVL<>();
+        boolean[][] models = new boolean[threads][keysPerThread];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> work(tree, id, threads, ops, models[id]), "worker-" + t);
+            workers[t].setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+        }
+
+        int[] checks = new int[1];
+        Thread checker = new Thread(() -> {
+            while (running.get()) {
+                tree.checkInvariants();
+                checks[0]++;
+                Thread.yield();
+            }
+        }, "checker");
+        checker.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+
+        long start = System.nanoTime();
+        checker.start();
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        running.set(false);
+        checker.join();
+        long ms = (System.nanoTime() - start) / 1_000_000;
+
+        if (failure.get() == null) {
+            try {
+                tree.checkInvariants();
+                verify(tree, models, threads);
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        }
+
+        if (failure.get() != null) {
+            System.out.println("FAILED: " + failure.get());
+            failure.get().printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("OK: " + threads + " threads x " + ops + " ops in " + ms + " ms, "
+                + checks[0] + " invariant checks, final size " + tree.getSize());
+    }
+
+    private static void work(ConcurrentAVL<Integer> tree, int id, int threads, int ops, boolean[] model) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < ops; i++) {
+            int slot = rnd.nextInt(model.length);
+            int key = slot * threads + id;
+            int op = rnd.nextInt(10);
+
+            if (op < 4) {
+                boolean inserted = tree.insert(key, key);
+                check(inserted == !model[slot], "insert(" + key + ") returned " + inserted);
+                model[slot] = true;
+            } else if (op < 7) {
+                boolean deleted = tree.delete(key);
+                check(deleted == model[slot], "delete(" + key + ") returned " + deleted);
+                model[slot] = false;
+            } else if (op < 8) {
+                Integer value = tree.search(key);
+                check(model[slot] ? (value != null && value == key) : value == null,
+                        "search(" + key + ") returned " + value);
+            } else if (op < 9) {
+                int lo = key, hi = key + 64 * threads;
+                int prev = Integer.MIN_VALUE;
+                for (int v : tree.rangeQuery(lo, hi)) {
+                    check(v >= lo && v <= hi && v > prev, "rangeQuery(" + lo + ", " + hi + ") returned " + v);
+                    prev = v;
+                }
+            } else {
+                // Other threads write while this cursor streams, but this thread's own keys hold
+                // still, so exactly the present ones must come back.
+                int lo = key, hi = key + 64 * threads;
+                int prev = Integer.MIN_VALUE, own = 0;
+                for (OrderedIndex.Cursor<Integer> c = tree.rangeCursor(lo, hi); c.valid(); c.findNext()) {
+                    int k = c.key();
+                    check(k >= lo && k <= hi && k > prev && c.retrieve() == k, "rangeCursor(" + lo + ", " + hi + ") returned " + k);
+                    if (k % threads == id) {
+                        check(model[k / threads], "rangeCursor returned deleted key " + k);
+                        own++;
+                    }
+                    prev = k;
+                }
+                int expected = 0;
+                for (int s = slot; s < model.length && s * threads + id <= hi; s++) {
+                    if (model[s]) expected++;
+                }
+                check(own == expected, "rangeCursor(" + lo + ", " + hi + ") saw " + own + " own keys, expected " + expected);
+            }
+        }
+    }
+
+    // Compares the tree with the union of the workers' models.
+    private static void verify(ConcurrentAVL<Integer> tree, boolean[][] models, int threads) {
+        int expected = 0;
+        for (int t = 0; t < threads; t++) {
+            for (int slot = 0; slot < models[t].length; slot++) {
+                int key = slot * threads + t;
+                check(tree.contains(key) == models[t][slot], "final contains(" + key + ") is wrong");
+                if (models[t][slot]) expected++;
+            }
+        }
+        check(tree.getSize() == expected, "size " + tree.getSize() + ", expected " + expected);
+
+        int prev = Integer.MIN_VALUE, count = 0;
+        for (OrderedIndex.Cursor<Integer> c = tree.cursor(); c.valid(); c.findNext(), count++) {
+            check(c.key() > prev && c.retrieve() == c.key(), "cursor out of order at " + c.key());
+            prev = c.key();
+        }
+        check(count == expected, "cursor saw " + count + " keys, expected " + expected);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+}
@@ -0,0 +1,138 @@
+package datastructures.avl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Randomized check of LSMTree against a TreeMap model. A small memtable and compaction trigger
+// make every operation cross flushes and compactions; the point lookups, range queries, pages
+// and counts must match the model after each step. Every reopenEvery operations the tree is
+// closed and reopened, once with a leftover temporary run file from an interrupted flush, and
+// must come back with the same contents.
+//
+//   javac -d out $(find src test -name '*.java')
+//   java -cp out datastructures.avl.LSMTreeModelCheck [ops] [seed]
+public class LSMTreeModelCheck {
+
+    static final LSMTree.Codec<String> CODEC = new LSMTree.Codec<String>() {
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String decode(ByteBuffer in) {
+            return StandardCharsets.UTF_8.decode(in).toString();
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int ops = (args.length > 0) ? Integer.parseInt(args[0]) : 60_000;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+        int reopenEvery = 10_000;
+
+        Path dir = Files.createTempDirectory("lsm-check");
+        Random rnd = new Random(seed);
+        TreeMap<Long, String> model = new TreeMap<>();
+        LSMTree<String> tree = LSMTree.open(dir.toString(), CODEC, 64, 3);
+        int reopens = 0;
+
+        try {
+            for (int i = 0; i < ops; i++) {
+                int key = rnd.nextInt(400) - 200, id = rnd.nextInt(16);
+                long slot = slot(key, id);
+                int op = rnd.nextInt(20);
+
+                if (op < 9) {
+                    String value = "v" + i;
+                    tree.put(key, id, value);
+                    model.put(slot, value);
+                } else if (op < 14) {
+                    tree.delete(key, id);
+                    model.remove(slot);
+                } else if (op < 16) {
+                    String value = tree.get(key, id);
+                    check(Objects.equals(value, model.get(slot)), "get(" + key + ", " + id + ") returned " + value);
+                } else if (op < 17) {
+                    int offset = rnd.nextInt(model.size() + 10), count = rnd.nextInt(40);
+                    List<String> expected = new ArrayList<>(model.values());
+                    expected = expected.subList(Math.min(offset, expected.size()), Math.min(offset + count, expected.size()));
+                    check(expected.equals(toList(tree.page(offset, count))), "page(" + offset + ", " + count + ") is wrong");
+                } else {
+                    int lo = key, hi = key + rnd.nextInt(60);
+                    Map<Long, String> range = model.subMap(slot(lo, Integer.MIN_VALUE), true, slot(hi, Integer.MAX_VALUE), true);
+                    check(new ArrayList<>(range.values()).equals(toList(tree.rangeQuery(lo, hi))),
+                            "rangeQuery(" + lo + ", " + hi + ") is wrong");
+                    check(tree.countInRange(lo, hi) == range.size(), "countInRange(" + lo + ", " + hi + ") is wrong");
+                    IntList ids = tree.idsInRange(lo, hi);
+                    int j = 0;
+                    for (long s : range.keySet()) {
+                        check(ids.get(j++) == idOf(s), "idsInRange(" + lo + ", " + hi + ") is wrong");
+                    }
+                }
+                check(tree.getSize() == model.size(), "size " + tree.getSize() + ", expected " + model.size());
+
+                if (i % reopenEvery == reopenEvery - 1) {
+                    tree.close();
+                    if (reopens == 0) {
+                        // A flush that died before its rename leaves a .tmp file behind.
+                        Files.write(dir.resolve("run-999999-999999.sst.tmp"), new byte[] {1, 2, 3});
+                    }
+                    tree = LSMTree.open(dir.toString(), CODEC, 64, 3);
+                    reopens++;
+                    verify(tree, model);
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.tmp")) {
+                        check(!files.iterator().hasNext(), "temporary run file survived open()");
+                    }
+                }
+            }
+            verify(tree, model);
+        } catch (RuntimeException e) {
+            System.out.println("FAILED: " + e);
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            tree.close();
+        }
+
+        System.out.println("OK: " + ops + " ops, " + reopens + " reopens, final size " + model.size());
+    }
+
+    // Every entry of the model, in order, and nothing else.
+    private static void verify(LSMTree<String> tree, TreeMap<Long, String> model) {
+        check(tree.getSize() == model.size(), "size " + tree.getSize() + ", expected " + model.size());
+        check(new ArrayList<>(model.values()).equals(toList(tree.rangeQuery(Integer.MIN_VALUE, Integer.MAX_VALUE))),
+                "full scan differs from the model");
+        for (Map.Entry<Long, String> e : model.entrySet()) {
+            int key = (int) (e.getKey() >> 32), id = idOf(e.getKey());
+            check(e.getValue().equals(tree.get(key, id)), "get(" + key + ", " + id + ") lost its value");
+        }
+    }
+
+    // Model key ordered like LSMTree entries: by key, then id.
+    private static long slot(int key, int id) {
+        return ((long) key << 32) | (id - (long) Integer.MIN_VALUE);
+    }
+
+    private static int idOf(long slot) {
+        return (int) ((slot & 0xFFFFFFFFL) + Integer.MIN_VALUE);
+    }
+
+    private static List<String> toList(LinkedList<String> list) {
+        List<String> result = new ArrayList<>();
+        for (String s : list) {
+            result.add(s);
+        }
+        return result;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+}
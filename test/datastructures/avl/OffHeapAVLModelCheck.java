@@ -0,0 +1,118 @@
+package datastructures.avl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Randomized check of OffHeapAVL against a TreeMap model, once in direct memory and once backed by
+// a file. The key range is wide enough for the tree to outgrow its first segment, and deletes
+// recycle slots through the free list. Every lookup and range must match the model, and
+// checkInvariants() runs every checkEvery operations. The file-backed tree is closed and reopened
+// every reopenEvery operations and must come back unchanged; a second open() of a file that was
+// not closed must be refused.
+//
+//   javac -d out $(find src test -name '*.java')
+//   java -cp out datastructures.avl.OffHeapAVLModelCheck [ops] [seed]
+public class OffHeapAVLModelCheck {
+
+    public static void main(String[] args) throws IOException {
+        int ops = (args.length > 0) ? Integer.parseInt(args[0]) : 300_000;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+        Path dir = Files.createTempDirectory("offheap-check");
+        String file = dir.resolve("tree.avl").toString();
+        int reopens = 0;
+
+        try {
+            run(new OffHeapAVL(), null, ops, new Random(seed));
+            reopens = run(OffHeapAVL.open(file), file, ops, new Random(seed + 1));
+        } catch (RuntimeException e) {
+            System.out.println("FAILED: " + e);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        System.out.println("OK: " + ops + " ops in direct memory, " + ops + " ops file-backed with "
+                + reopens + " reopens");
+    }
+
+    // Returns the number of reopens; file is null for a direct tree.
+    private static int run(OffHeapAVL tree, String file, int ops, Random rnd) throws IOException {
+        int keys = 200_000, checkEvery = 20_000, reopenEvery = 50_000, reopens = 0, peak = 0;
+        TreeMap<Integer, Long> model = new TreeMap<>();
+
+        for (int i = 0; i < ops; i++) {
+            // The first half mostly inserts, to grow past one segment; the second half churns.
+            boolean growing = i < ops / 2;
+            int key = rnd.nextInt(keys);
+            int op = rnd.nextInt(10);
+            long value = rnd.nextLong();
+
+            if (op < (growing ? 7 : 3)) {
+                boolean inserted = tree.insert(key, value);
+                check(inserted == !model.containsKey(key), "insert(" + key + ") returned " + inserted);
+                model.putIfAbsent(key, value);
+            } else if (!growing && op < 5) {
+                tree.put(key, value);
+                model.put(key, value);
+            } else if (op < 8) {
+                boolean deleted = tree.delete(key);
+                check(deleted == model.containsKey(key), "delete(" + key + ") returned " + deleted);
+                model.remove(key);
+            } else if (op < 9) {
+                long got = tree.get(key, Long.MIN_VALUE);
+                check(got == model.getOrDefault(key, Long.MIN_VALUE) && tree.contains(key) == model.containsKey(key),
+                        "get(" + key + ") returned " + got);
+            } else {
+                int hi = key + rnd.nextInt(2_000);
+                IntList range = tree.rangeKeys(key, hi);
+                int j = 0;
+                for (int k : model.subMap(key, true, hi, true).keySet()) {
+                    check(j < range.getSize() && range.get(j++) == k, "rangeKeys(" + key + ", " + hi + ") is wrong");
+                }
+                check(j == range.getSize(), "rangeKeys(" + key + ", " + hi + ") returned extra keys");
+            }
+            check(tree.getSize() == model.size(), "size " + tree.getSize() + ", expected " + model.size());
+            peak = Math.max(peak, model.size());
+
+            if (i % checkEvery == 0)
+                tree.checkInvariants();
+            if (file != null && i % reopenEvery == reopenEvery - 1) {
+                if (reopens == 0) {
+                    try {
+                        OffHeapAVL.open(file).close();
+                        check(false, "open() accepted a file that was not closed");
+                    } catch (IOException expected) {
+                        // the tree is still open, so the file is marked dirty
+                    }
+                }
+                tree.close();
+                tree = OffHeapAVL.open(file);
+                reopens++;
+                verify(tree, model);
+            }
+        }
+        verify(tree, model);
+        check(peak > 1 << 16, "peak size " + peak + " stayed within one segment");
+        tree.close();
+        return reopens;
+    }
+
+    private static void verify(OffHeapAVL tree, TreeMap<Integer, Long> model) {
+        tree.checkInvariants();
+        check(tree.getSize() == model.size(), "size " + tree.getSize() + ", expected " + model.size());
+        IntList keys = tree.getKeysSorted();
+        int i = 0;
+        for (Map.Entry<Integer, Long> e : model.entrySet()) {
+            check(keys.get(i++) == e.getKey(), "getKeysSorted() is wrong at position " + (i - 1));
+            check(tree.get(e.getKey(), ~e.getValue()) == e.getValue(), "get(" + e.getKey() + ") lost its value");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+}
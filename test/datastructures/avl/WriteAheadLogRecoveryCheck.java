@@ -0,0 +1,236 @@
+package datastructures.avl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Randomized crash-recovery check of WriteAheadLog and Snapshot against TreeMap models of the four
+// stores. Each round applies random logged mutations (adds, deletes, price and stock updates,
+// order status changes, review edits) and records the successful ones in the models, sometimes
+// checkpointing on the way. The round then "crashes": the log is abandoned without close(), a
+// torn frame is appended to it, and every store is emptied. WriteAheadLog.recover must bring back
+// exactly the models' contents, including each product's rating totals.
+//
+// The log runs with syncOnCommit, so every mutation that has returned must survive. The stores
+// are static, so run this in its own JVM.
+//
+//   javac -d out $(find src test -name '*.java')
+//   java -cp out datastructures.avl.WriteAheadLogRecoveryCheck [rounds] [opsPerRound] [seed]
+public class WriteAheadLogRecoveryCheck {
+
+    // Products below this id carry the reviews and are never deleted, so their rating totals are
+    // defined by the review model alone.
+    private static final int REVIEWED_PRODUCTS = 40;
+    private static final int CUSTOMERS = 20;
+    private static final String[] STATUSES = {"Pending", "Shipped", "Delivered"};
+
+    private static final TreeMap<Integer, String> products = new TreeMap<>();
+    private static final TreeMap<Integer, String> customers = new TreeMap<>();
+    private static final TreeMap<Integer, String> orders = new TreeMap<>();
+    private static final TreeMap<Integer, String> reviews = new TreeMap<>();
+
+    public static void main(String[] args) throws IOException {
+        int rounds = (args.length > 0) ? Integer.parseInt(args[0]) : 12;
+        int ops = (args.length > 1) ? Integer.parseInt(args[1]) : 1_500;
+        long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+
+        Path dir = Files.createTempDirectory("wal-check");
+        String snapshot = dir.resolve("stores.snap").toString();
+        String logFile = dir.resolve("stores.wal").toString();
+        Random rnd = new Random(seed);
+        PrintStream out = System.out;
+        int checkpoints = 0;
+
+        // The mutators report each step on stdout.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            WriteAheadLog log = WriteAheadLog.recover(snapshot, logFile, 32, 1, true);
+            for (int i = 0; i < REVIEWED_PRODUCTS; i++) {
+                addProduct(i, rnd);
+            }
+            for (int i = 0; i < CUSTOMERS; i++) {
+                check(Customer.addCustomer(new Customer(i, "customer " + i, "c" + i + "@example.com")), "addCustomer failed");
+                customers.put(i, "customer " + i + "|c" + i + "@example.com");
+            }
+
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < ops; i++) {
+                    mutate(rnd, i);
+                    if (rnd.nextInt(ops) == 0) {
+                        log.checkpoint(snapshot);
+                        checkpoints++;
+                    }
+                }
+                verify("before crash " + round);
+
+                // Crash: the open log is dropped and a record was half-written when power failed.
+                WriteAheadLog.detach();
+                try (FileChannel ch = FileChannel.open(Path.of(logFile), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ch.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 9, 9}));
+                }
+                Product.setAllProducts(new LinkedList<>());
+                Customer.setCustomers(new LinkedList<>());
+                Order.setOrders(new LinkedList<>());
+                Review.setReviews(new LinkedList<>());
+
+                log = WriteAheadLog.recover(snapshot, logFile, 32, 1, true);
+                verify("after recovery " + round);
+            }
+            log.close();
+        } catch (RuntimeException e) {
+            System.setOut(out);
+            System.out.println("FAILED: " + e);
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            System.setOut(out);
+        }
+
+        System.out.println("OK: " + rounds + " crashes x " + ops + " ops, " + checkpoints + " checkpoints, "
+                + products.size() + " products, " + orders.size() + " orders, " + reviews.size() + " reviews");
+    }
+
+    private static void mutate(Random rnd, int i) {
+        int op = rnd.nextInt(10);
+        if (op == 0) {
+            addProduct(REVIEWED_PRODUCTS + rnd.nextInt(160), rnd);
+        } else if (op == 1) {
+            int id = REVIEWED_PRODUCTS + rnd.nextInt(160);
+            check(Product.deleteProduct(id) == (products.remove(id) != null), "deleteProduct(" + id + ")");
+        } else if (op == 2) {
+            int id = rnd.nextInt(200);
+            double price = rnd.nextInt(100_000) / 100.0;
+            boolean updated = Product.updatePrice(id, price);
+            check(updated == products.containsKey(id), "updatePrice(" + id + ")");
+            if (updated) products.put(id, replace(products.get(id), 1, Double.toString(price)));
+        } else if (op == 3) {
+            int id = rnd.nextInt(200), stock = rnd.nextInt(50);
+            boolean updated = Product.updateStock(id, stock);
+            check(updated == products.containsKey(id), "updateStock(" + id + ")");
+            if (updated) products.put(id, replace(products.get(id), 2, Integer.toString(stock)));
+        } else if (op < 6) {
+            int id = rnd.nextInt(5_000), customerId = rnd.nextInt(CUSTOMERS);
+            IntList items = new IntList();
+            for (int k = rnd.nextInt(4); k > 0; k--) {
+                items.add(rnd.nextInt(REVIEWED_PRODUCTS));
+            }
+            String date = String.format("2025-%02d-%02d", 1 + rnd.nextInt(12), 1 + rnd.nextInt(28));
+            Order order = new Order(id, customerId, items, rnd.nextInt(10_000) / 100.0, date, "Pending");
+            boolean added = Order.addOrder(order);
+            check(added == !orders.containsKey(id), "addOrder(" + id + ")");
+            if (added) orders.put(id, describe(order));
+        } else if (op == 6) {
+            int id = rnd.nextInt(5_000);
+            String status = (rnd.nextInt(4) == 0) ? "Cancelled" : STATUSES[rnd.nextInt(STATUSES.length)];
+            boolean changed = status.equals("Cancelled") ? Order.cancelOrder(id) : Order.updateOrderStatus(id, status);
+            check(changed == orders.containsKey(id), "status change of order " + id);
+            if (changed) orders.put(id, replace(orders.get(id), 5, status));
+        } else if (op < 9) {
+            int id = rnd.nextInt(3_000), productId = rnd.nextInt(REVIEWED_PRODUCTS);
+            int customerId = rnd.nextInt(CUSTOMERS), rating = 1 + rnd.nextInt(5);
+            boolean added = Review.addReview(new Review(id, productId, customerId, rating, "review " + i));
+            check(added == !reviews.containsKey(id), "addReview(" + id + ")");
+            if (added) reviews.put(id, productId + "|" + customerId + "|" + rating + "|review " + i);
+        } else {
+            // Out-of-range ratings and empty comments leave that field alone.
+            int id = rnd.nextInt(3_000), rating = rnd.nextInt(7);
+            String comment = rnd.nextBoolean() ? "edited " + i : "";
+            boolean edited = Review.editReview(id, rating, comment);
+            check(edited == reviews.containsKey(id), "editReview(" + id + ")");
+            if (edited) {
+                String r = reviews.get(id);
+                if (rating >= 1 && rating <= 5) r = replace(r, 2, Integer.toString(rating));
+                if (!comment.isEmpty()) r = replace(r, 3, comment);
+                reviews.put(id, r);
+            }
+        }
+    }
+
+    private static void addProduct(int id, Random rnd) {
+        Product p = new Product(id, "product " + id, rnd.nextInt(100_000) / 100.0, rnd.nextInt(50));
+        boolean added = Product.addProduct(p);
+        check(added == !products.containsKey(id), "addProduct(" + id + ")");
+        if (added) products.put(id, p.getName() + "|" + p.getPrice() + "|" + p.getStock());
+    }
+
+    // Compares every store with its model, and each reviewed product's rating totals with the
+    // reviews in the model.
+    private static void verify(String when) {
+        TreeMap<Integer, String> actual = new TreeMap<>();
+        for (Product p : Product.getAllProducts()) {
+            actual.put(p.getProductId(), p.getName() + "|" + p.getPrice() + "|" + p.getStock());
+        }
+        same(when, "products", products, actual);
+
+        actual.clear();
+        for (Customer c : Customer.getCustomers()) {
+            actual.put(c.getCustomerId(), c.getName() + "|" + c.getEmail());
+        }
+        same(when, "customers", customers, actual);
+
+        actual.clear();
+        for (Order o : Order.getOrders()) {
+            actual.put(o.getOrderId(), describe(o));
+        }
+        same(when, "orders", orders, actual);
+
+        actual.clear();
+        for (Review r : Review.getReviews()) {
+            actual.put(r.getReviewId(), r.getProductId() + "|" + r.getCustomerId() + "|" + r.getRating() + "|" + r.getComment());
+        }
+        same(when, "reviews", reviews, actual);
+
+        long[] sum = new long[REVIEWED_PRODUCTS];
+        int[] count = new int[REVIEWED_PRODUCTS];
+        for (String r : reviews.values()) {
+            String[] f = r.split("\\|");
+            int productId = Integer.parseInt(f[0]);
+            sum[productId] += Integer.parseInt(f[2]);
+            count[productId]++;
+        }
+        for (int id = 0; id < REVIEWED_PRODUCTS; id++) {
+            Product p = Product.findProduct(id);
+            check(p.getRatingCount() == count[id]
+                    && (count[id] == 0 || Math.abs(p.getAverageRating() - (double) sum[id] / count[id]) < 1e-9),
+                    when + ": rating totals of product " + id);
+        }
+    }
+
+    private static void same(String when, String store, Map<Integer, String> expected, Map<Integer, String> actual) {
+        if (expected.equals(actual)) return;
+        for (Map.Entry<Integer, String> e : expected.entrySet()) {
+            check(Objects.equals(e.getValue(), actual.get(e.getKey())),
+                    when + ": " + store + " " + e.getKey() + " is " + actual.get(e.getKey()) + ", expected " + e.getValue());
+        }
+        check(false, when + ": " + store + " has " + actual.size() + " entries, expected " + expected.size());
+    }
+
+    private static String describe(Order o) {
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < o.getItems().getSize(); i++) {
+            items.append(o.getItems().get(i)).append(',');
+        }
+        return o.getCustomerId() + "|" + o.getTotalPrice() + "|" + o.getOrderDate() + "|" + o.getOrderDay()
+                + "|" + items + "|" + o.getStatus();
+    }
+
+    // Replaces field i of a '|'-separated description.
+    private static String replace(String fields, int i, String value) {
+        String[] f = fields.split("\\|", -1);
+        f[i] = value;
+        return String.join("|", f);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+}